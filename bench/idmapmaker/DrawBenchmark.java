@@ -0,0 +1,66 @@
+/*
+ * DrawBenchmark.java
+ *
+ * Created on Oct 17, 2026, 7:15:09 PM
+ */
+
+package idmapmaker;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-map passes: decoding id.tbl into the full image and building the
+ * zoom pyramid from it, on one thread or on the common pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+public class DrawBenchmark {
+    
+    /** Number of threads to draw with; 0 means the common pool. */
+    @Param({"1", "0"})
+    public int threads;
+    
+    private ForkJoinPool pool;
+    
+    @Setup
+    public void setUp() {
+        pool = (threads == 1) ? null : ForkJoinPool.commonPool();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void collect() {
+        // each invocation leaves a 138 MB image behind
+        System.gc();
+    }
+    
+    @Benchmark
+    public BufferedImage draw(MapState map) throws Exception {
+        final IdTbl id = map.newIdTbl();
+        id.setRenderPool(pool);
+        return id.getImage();
+    }
+    
+    @Benchmark
+    public MapPyramid buildPyramid(MapState map) {
+        return new MapPyramid(map.id.getImage(), pool);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * LookupBenchmark.java
+ *
+ * Created on Oct 17, 2026, 6:51:45 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Point lookups: <code>IdTbl.getId</code> with and without the span index,
+ * for random points and for points read along a line, and
+ * <code>BoundboxTbl.getBounds</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    
+    private static final int LOOKUPS = 4096;
+    
+    /** "scan" for the linear span scan, "index" for the span index. */
+    @Param({"scan", "index"})
+    public String lookup;
+    
+    private IdTbl id;
+    private final int[] randomXs = new int[LOOKUPS];
+    private final int[] randomYs = new int[LOOKUPS];
+    private final int[] rowXs = new int[LOOKUPS];
+    private final int[] rowYs = new int[LOOKUPS];
+    private final int[] out = new int[LOOKUPS];
+    
+    @Setup
+    public void setUp(MapState map) throws Exception {
+        id = map.newIdTbl();
+        id.setUseSpanIndex(lookup.equals("index"));
+        
+        final Random rnd = new Random(42);
+        final int rowY = IdTbl.MAP_HEIGHT / 2;
+        for (int i = 0; i < LOOKUPS; i++) {
+            randomXs[i] = rnd.nextInt(IdTbl.MAP_WIDTH);
+            randomYs[i] = rnd.nextInt(IdTbl.MAP_HEIGHT);
+            rowXs[i] = (int) ((long) i * IdTbl.MAP_WIDTH / LOOKUPS);
+            rowYs[i] = rowY;
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getIdRandom() {
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            sum += id.getId(randomXs[i], randomYs[i]);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getIdAlongRow() {
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            sum += id.getId(rowXs[i], rowYs[i]);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int[] getIdsBulk() {
+        id.getIds(randomXs, randomYs, out, LOOKUPS);
+        return out;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getBounds(MapState map, Blackhole bh) {
+        final int count = map.bounds.getProvinceCount();
+        for (int i = 0; i < LOOKUPS; i++) {
+            final Rectangle r = map.bounds.getBounds(i % count);
+            bh.consume(r);
+        }
+    }
+}
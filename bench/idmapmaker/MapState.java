@@ -0,0 +1,63 @@
+/*
+ * MapState.java
+ *
+ * Created on Oct 17, 2026, 6:40:12 PM
+ */
+
+package idmapmaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding a loaded {@link SyntheticMap}. The files are
+ * written to a temporary directory once per trial, since
+ * {@link ProvinceData} and the file constructors only read from disk.
+ */
+@State(Scope.Benchmark)
+public class MapState {
+    
+    File dir;
+    File idFile;
+    File boundboxFile;
+    File provinceFile;
+    
+    ProvinceData data;
+    IdTbl id;
+    BoundboxTbl bounds;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("idmapbench").toFile();
+        new SyntheticMap().write(dir);
+        idFile = new File(dir, "id.tbl");
+        boundboxFile = new File(dir, "boundbox.tbl");
+        provinceFile = new File(dir, "province.csv");
+        
+        data = new ProvinceData(provinceFile.getPath());
+        id = new IdTbl(idFile.getPath(), data);
+        bounds = new BoundboxTbl(boundboxFile.getPath());
+    }
+    
+    /**
+     * Returns a fresh id.tbl over the same data, with no cached image or
+     * index.
+     */
+    IdTbl newIdTbl() throws IOException {
+        return new IdTbl(idFile.getPath(), data);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        idFile.delete();
+        boundboxFile.delete();
+        provinceFile.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * ParseBenchmark.java
+ *
+ * Created on Oct 17, 2026, 7:32:58 PM
+ */
+
+package idmapmaker;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the text and binary data files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    
+    @Benchmark
+    public ProvinceData loadProvinceCsv(MapState map) {
+        return new ProvinceData(map.provinceFile.getPath());
+    }
+    
+    @Benchmark
+    public IdTbl mapIdTbl(MapState map) throws Exception {
+        return new IdTbl(map.idFile.getPath(), map.data, true);
+    }
+    
+    @Benchmark
+    public IdTbl readIdTbl(MapState map) throws Exception {
+        return new IdTbl(map.idFile.getPath(), map.data, false);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * SyntheticMap.java
+ *
+ * Created on Oct 17, 2026, 6:02:37 PM
+ */
+
+package idmapmaker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a deterministic, full-size set of map files (id.tbl,
+ * boundbox.tbl and province.csv) so the benchmarks can run without a game
+ * installation.
+ * <p>
+ * The map is a grid of cells with wavy edges, each cell being a province.
+ * About a fifth of the provinces are sea, and a few IDs are left out of
+ * province.csv so that they show up as Terra Incognita. The same seed
+ * always gives the same files.
+ * <p>
+ * Usage: <code>java idmapmaker.SyntheticMap &lt;directory&gt; [seed]</code>
+ */
+public final class SyntheticMap {
+    
+    public static final long DEFAULT_SEED = 1614;
+    
+    private static final int WIDTH = IdTbl.MAP_WIDTH;
+    private static final int HEIGHT = IdTbl.MAP_HEIGHT;
+    private static final int NUM_PROVINCES = 2020;
+    private static final int CELL_WIDTH = 430;
+    private static final int CELL_HEIGHT = 310;
+    
+    private final byte[] idTbl;
+    private final byte[] boundboxTbl;
+    private final String provinceCsv;
+    
+    public SyntheticMap() {
+        this(DEFAULT_SEED);
+    }
+    
+    public SyntheticMap(long seed) {
+        final Random rnd = new Random(seed);
+        
+        // Shuffle the IDs over the cells so neighbours are unrelated.
+        final int cols = WIDTH / CELL_WIDTH + 2;
+        final int rows = HEIGHT / CELL_HEIGHT + 2;
+        final int[] cellIds = new int[cols * rows];
+        for (int i = 0; i < cellIds.length; i++) {
+            cellIds[i] = i % (NUM_PROVINCES - 1) + 1;
+        }
+        for (int i = cellIds.length - 1; i > 0; i--) {
+            final int j = rnd.nextInt(i + 1);
+            final int tmp = cellIds[i];
+            cellIds[i] = cellIds[j];
+            cellIds[j] = tmp;
+        }
+        
+        // Wavy cell edges: columns shift with y and rows shift with x.
+        final double phaseX = rnd.nextDouble() * 2 * Math.PI;
+        final double phaseY = rnd.nextDouble() * 2 * Math.PI;
+        final int[] shiftX = new int[HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            shiftX[y] = (int) (60 * Math.sin(y / 47.0 + phaseX)) + 60;
+        }
+        final int[] shiftY = new int[WIDTH];
+        for (int x = 0; x < WIDTH; x++) {
+            shiftY[x] = (int) (50 * Math.sin(x / 53.0 + phaseY)) + 50;
+        }
+        
+        final int[] x1 = new int[NUM_PROVINCES];
+        final int[] y1 = new int[NUM_PROVINCES];
+        final int[] x2 = new int[NUM_PROVINCES];
+        final int[] y2 = new int[NUM_PROVINCES];
+        Arrays.fill(x1, WIDTH);
+        Arrays.fill(y1, HEIGHT);
+        
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(1 << 22);
+        final ByteBuffer header = ByteBuffer.allocate(4 * (HEIGHT + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer line = ByteBuffer.allocate(4 * WIDTH + 4).order(ByteOrder.LITTLE_ENDIAN);
+        final int[] row = new int[WIDTH];
+        int relativeOffset = 0;
+        
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int cx = (x + shiftX[y]) / CELL_WIDTH;
+                final int cy = (y + shiftY[x]) / CELL_HEIGHT;
+                row[x] = cellIds[cy * cols + cx];
+            }
+            
+            header.putInt(relativeOffset);
+            line.clear();
+            line.putShort((short) 0);
+            int start = 0;
+            int spans = 0;
+            for (int x = 1; x <= WIDTH; x++) {
+                if (x == WIDTH || row[x] != row[start]) {
+                    final int id = row[start];
+                    line.putShort((short) id);
+                    line.putShort((short) x);
+                    spans++;
+                    x1[id] = Math.min(x1[id], start);
+                    y1[id] = Math.min(y1[id], y);
+                    x2[id] = Math.max(x2[id], x);
+                    y2[id] = Math.max(y2[id], y + 1);
+                    start = x;
+                }
+            }
+            line.putShort((short) 0);   // pad the line to a multiple of 4 bytes
+            data.write(line.array(), 0, line.position());
+            relativeOffset += 1 + spans;
+        }
+        header.putInt(relativeOffset);
+        
+        idTbl = new byte[header.capacity() + data.size()];
+        System.arraycopy(header.array(), 0, idTbl, 0, header.capacity());
+        System.arraycopy(data.toByteArray(), 0, idTbl, header.capacity(), data.size());
+        
+        final ByteBuffer boxes = ByteBuffer.allocate(16 * NUM_PROVINCES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < NUM_PROVINCES; i++) {
+            boxes.putInt(x1[i]).putInt(y1[i]).putInt(x2[i]).putInt(y2[i]);
+        }
+        boundboxTbl = boxes.array();
+        
+        final StringBuilder csv = new StringBuilder(NUM_PROVINCES * 128);
+        csv.append("Id;Name;Area;Region;Culture;Religion;Size;Tax;Income;Goods;Manpower;Fort;Natives;Terrain\n");
+        for (int i = 1; i < NUM_PROVINCES; i++) {
+            if (rnd.nextInt(50) == 0)
+                continue;   // Terra Incognita
+            final int terrain = (rnd.nextInt(5) == 0) ? 5 + rnd.nextInt(2) : rnd.nextInt(5);
+            csv.append(i).append(";Province ").append(i);
+            for (int k = 2; k < 13; k++) {
+                csv.append(";0");
+            }
+            csv.append(';').append(terrain);
+            for (int k = 14; k < 60; k++) {
+                csv.append(";0");
+            }
+            csv.append('\n');
+        }
+        provinceCsv = csv.toString();
+    }
+    
+    public byte[] getIdTbl() {
+        return idTbl;
+    }
+    
+    public byte[] getBoundboxTbl() {
+        return boundboxTbl;
+    }
+    
+    public String getProvinceCsv() {
+        return provinceCsv;
+    }
+    
+    /**
+     * Writes id.tbl, boundbox.tbl and province.csv into the given directory.
+     */
+    public void write(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        try (OutputStream out = new FileOutputStream(new File(dir, "id.tbl"))) {
+            out.write(idTbl);
+        }
+        try (OutputStream out = new FileOutputStream(new File(dir, "boundbox.tbl"))) {
+            out.write(boundboxTbl);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, "province.csv")), StandardCharsets.ISO_8859_1)) {
+            out.write(provinceCsv);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java idmapmaker.SyntheticMap <directory> [seed]");
+            return;
+        }
+        final long seed = (args.length > 1) ? Long.parseLong(args[1]) : DEFAULT_SEED;
+        new SyntheticMap(seed).write(new File(args[0]));
+    }
+}
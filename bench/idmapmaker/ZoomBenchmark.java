@@ -0,0 +1,87 @@
+/*
+ * ZoomBenchmark.java
+ *
+ * Created on Oct 17, 2026, 7:24:31 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a repaint of <code>IDMapPanel</code> costs at a given scale:
+ * rendering one screenful of tiles from scratch (which replaced rescaling
+ * the whole map in <code>rescaleMap</code>), and painting the province IDs
+ * over it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+public class ZoomBenchmark {
+    
+    private static final int VIEW_WIDTH = 1600;
+    private static final int VIEW_HEIGHT = 900;
+    
+    @Param({"0.1", "0.5", "2.0"})
+    public double scale;
+    
+    private MapPyramid pyramid;
+    private LabelLayer labels;
+    private BufferedImage screen;
+    private Rectangle clip;
+    
+    @Setup
+    public void setUp(MapState map) {
+        pyramid = new MapPyramid(map.id.getImage(), ForkJoinPool.commonPool());
+        labels = new LabelLayer(map.id, map.bounds);
+        screen = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        // somewhere in the middle of the map
+        clip = new Rectangle(
+                (int) (IdTbl.MAP_WIDTH * scale / 2), (int) (IdTbl.MAP_HEIGHT * scale / 2),
+                VIEW_WIDTH, VIEW_HEIGHT);
+    }
+    
+    @Benchmark
+    public BufferedImage renderViewport() {
+        final MapTiles tiles = new MapTiles(pyramid);
+        final Graphics2D g = createGraphics();
+        tiles.paint(g, clip, scale);
+        g.dispose();
+        return screen;
+    }
+    
+    @Benchmark
+    public BufferedImage paintIds() {
+        final Graphics2D g = createGraphics();
+        g.setColor(Color.BLACK);
+        IDMapPanel.paintLabels(g, clip, scale, labels, true, false, true);
+        g.dispose();
+        return screen;
+    }
+    
+    private Graphics2D createGraphics() {
+        final Graphics2D g = screen.createGraphics();
+        g.translate(-clip.x, -clip.y);
+        g.setClip(clip);
+        return g;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * BorderExport.java
+ *
+ * Created on Oct 17, 2026, 11:58:09 PM
+ */
+
+package idmapmaker;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes province outlines from a {@link BorderTracer} as SVG or GeoJSON.
+ * <p>
+ * SVG files have one path per province, in map pixels, colored like the
+ * map image. GeoJSON files have one feature per province with a
+ * <code>MultiPolygon</code> geometry. GeoJSON's y axis points up, so the
+ * y coordinates are negated to keep north at the top, and the rings are
+ * written backwards so that outer rings are still counterclockwise, as the
+ * GeoJSON spec asks.
+ * <p>
+ * Rings that a simplification tolerance has reduced to fewer than three
+ * points (slivers thinner than the tolerance) are left out.
+ */
+final class BorderExport {
+    
+    private BorderExport() {
+    }
+    
+    /**
+     * Returns whether the file name ends in an extension that
+     * {@link #write(String, List, ProvinceData)} knows.
+     */
+    static boolean isVectorFile(String filename) {
+        final String name = filename.toLowerCase();
+        return name.endsWith(".svg") || name.endsWith(".geojson") || name.endsWith(".json");
+    }
+    
+    /**
+     * Writes the outlines as SVG or GeoJSON, depending on the file name.
+     */
+    static void write(String filename, List<BorderTracer.Outline> outlines, ProvinceData data) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8))) {
+            if (filename.toLowerCase().endsWith(".svg"))
+                writeSvg(out, outlines, data);
+            else
+                writeGeoJson(out, outlines, data);
+        }
+    }
+    
+    static void writeSvg(Writer out, List<BorderTracer.Outline> outlines, ProvinceData data) throws IOException {
+        final int width = IdTbl.MAP_WIDTH;
+        final int height = IdTbl.MAP_HEIGHT;
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+                + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<style>\n");
+        out.write("path { stroke: #000; stroke-width: 1; fill-rule: evenodd; }\n");
+        out.write(".land { fill: #fff; }\n");
+        out.write(".sea { fill: #6fa8df; }\n");
+        out.write(".pti { fill: #000; }\n");
+        out.write("</style>\n");
+        
+        final StringBuilder d = new StringBuilder();
+        for (BorderTracer.Outline outline : outlines) {
+            d.setLength(0);
+            for (int[] ring : outline.rings) {
+                if (ring.length < 6)
+                    continue;
+                d.append('M').append(ring[0]).append(' ').append(ring[1]);
+                for (int i = 2; i < ring.length; i += 2) {
+                    d.append(' ').append(ring[i]).append(' ').append(ring[i + 1]);
+                }
+                d.append('Z');
+            }
+            if (d.length() == 0)
+                continue;
+            
+            final int id = outline.provId;
+            out.write("<path id=\"p" + id + "\" class=\"" + getType(data, id) + "\" d=\"");
+            out.append(d);
+            out.write("\"><title>");
+            final String name = data.getName(id);
+            out.write(escapeXml(name == null ? Integer.toString(id) : id + " " + name));
+            out.write("</title></path>\n");
+        }
+        out.write("</svg>\n");
+    }
+    
+    static void writeGeoJson(Writer out, List<BorderTracer.Outline> outlines, ProvinceData data) throws IOException {
+        out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        
+        boolean firstFeature = true;
+        for (BorderTracer.Outline outline : outlines) {
+            final List<List<int[]>> polygons = groupRings(outline.rings);
+            if (polygons.isEmpty())
+                continue;
+            
+            if (!firstFeature)
+                out.write(',');
+            firstFeature = false;
+            
+            final int id = outline.provId;
+            out.write("\n{\"type\":\"Feature\",\"id\":" + id + ",\"properties\":{\"id\":" + id
+                    + ",\"name\":" + quoteJson(data.getName(id))
+                    + ",\"type\":\"" + getType(data, id) + "\"},");
+            out.write("\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[");
+            for (int p = 0; p < polygons.size(); p++) {
+                if (p > 0)
+                    out.write(',');
+                out.write('[');
+                final List<int[]> polygon = polygons.get(p);
+                for (int r = 0; r < polygon.size(); r++) {
+                    if (r > 0)
+                        out.write(',');
+                    writeGeoJsonRing(out, polygon.get(r));
+                }
+                out.write(']');
+            }
+            out.write("]}}");
+        }
+        out.write("\n]}\n");
+    }
+    
+    private static void writeGeoJsonRing(Writer out, int[] ring) throws IOException {
+        // backwards, and repeating the first point at the end
+        out.write('[');
+        for (int i = ring.length; i >= 0; i -= 2) {
+            final int j = i % ring.length;
+            if (i < ring.length)
+                out.write(',');
+            out.write("[" + ring[j] + "," + (-ring[j + 1]) + "]");
+        }
+        out.write(']');
+    }
+    
+    /**
+     * Sorts the rings into polygons: each outer ring followed by the holes
+     * inside it.
+     */
+    static List<List<int[]>> groupRings(List<int[]> rings) {
+        final List<List<int[]>> polygons = new ArrayList<>();
+        final List<Long> areas = new ArrayList<>();
+        final List<int[]> holes = new ArrayList<>();
+        for (int[] ring : rings) {
+            if (ring.length < 6)
+                continue;
+            final long area = BorderTracer.Outline.area(ring);
+            if (area > 0) {
+                final List<int[]> polygon = new ArrayList<>();
+                polygon.add(ring);
+                polygons.add(polygon);
+                areas.add(area);
+            } else if (area < 0) {
+                holes.add(ring);
+            }
+        }
+        
+        for (int[] hole : holes) {
+            // A province can be an island inside a lake inside itself, so
+            // the middle of a hole's first edge can be inside several outer
+            // rings. The hole belongs to the innermost one, which is the
+            // smallest of them since the rings never cross.
+            final double px = (hole[0] + hole[2]) / 2.0;
+            final double py = (hole[1] + hole[3]) / 2.0;
+            int best = (polygons.size() == 1) ? 0 : -1;
+            for (int i = 0; i < polygons.size(); i++) {
+                if ((best < 0 || areas.get(i) < areas.get(best)) && contains(polygons.get(i).get(0), px, py))
+                    best = i;
+            }
+            if (best >= 0)
+                polygons.get(best).add(hole);
+        }
+        return polygons;
+    }
+    
+    private static boolean contains(int[] ring, double px, double py) {
+        boolean inside = false;
+        for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+            final int xi = ring[i], yi = ring[i + 1];
+            final int xj = ring[j], yj = ring[j + 1];
+            if ((yi > py) != (yj > py) && px < (double) (xj - xi) * (py - yi) / (yj - yi) + xi)
+                inside = !inside;
+        }
+        return inside;
+    }
+    
+    private static String getType(ProvinceData data, int id) {
+        if (data.isPTI(id))
+            return "pti";
+        return data.isLand(id) ? "land" : "sea";
+    }
+    
+    private static String escapeXml(String str) {
+        return str.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+    
+    private static String quoteJson(String str) {
+        if (str == null)
+            return "null";
+        final StringBuilder sb = new StringBuilder(str.length() + 2).append('"');
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
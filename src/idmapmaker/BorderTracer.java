@@ -0,0 +1,630 @@
+/*
+ * BorderTracer.java
+ *
+ * Created on Oct 17, 2026, 11:20:56 PM
+ */
+
+package idmapmaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Traces the outline of every province as polygons, straight from the
+ * spans in id.tbl, without drawing the map.
+ * <p>
+ * The lines are read once from top to bottom. The borders between spans in
+ * a line become vertical edges, which are lengthened as long as the same
+ * border continues in the next line, and the borders between one line and
+ * the next are found by walking both lines' spans side by side. Each edge
+ * is kept twice, once for the province on each side, and points so that
+ * its province is on its right. The edges of each province are then
+ * joined end to end into rings: outer rings run clockwise (with y going
+ * down) and holes counterclockwise. All of this takes time proportional to
+ * the number of spans.
+ * <p>
+ * With a simplification tolerance, the rings are cut at every point where
+ * three or more borders meet (or where a province touches itself at a
+ * corner), and each piece between two such points is simplified with the
+ * Douglas-Peucker algorithm the same way from both sides, so neighbouring
+ * outlines still meet exactly.
+ */
+final class BorderTracer {
+    
+    /** The "province" outside the map. */
+    private static final int OUTSIDE = -1;
+    
+    private final IdTbl id;
+    private double tolerance = 0;
+    
+    // All edges, as parallel arrays.
+    private int edgeCount;
+    private int[] x0 = new int[1024];
+    private int[] y0 = new int[1024];
+    private int[] x1 = new int[1024];
+    private int[] y1 = new int[1024];
+    private int[] prov = new int[1024];
+    private int[] other = new int[1024];
+    
+    BorderTracer(IdTbl id) {
+        this.id = id;
+    }
+    
+    /**
+     * Sets how far (in pixels) a simplified outline may be from the real
+     * one. The default of 0 only leaves out points in the middle of
+     * straight lines.
+     */
+    void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+    
+    /**
+     * The outline of one province. Each ring is a flat array of
+     * x, y pairs (in map pixels, on the corners between pixels), with the
+     * last point joined back to the first.
+     */
+    static final class Outline {
+        final int provId;
+        final List<int[]> rings;
+        
+        Outline(int provId, List<int[]> rings) {
+            this.provId = provId;
+            this.rings = rings;
+        }
+        
+        /**
+         * Returns the signed area of a ring: positive for outer rings and
+         * negative for holes.
+         */
+        static long area(int[] ring) {
+            long sum = 0;
+            for (int i = 0; i < ring.length; i += 2) {
+                final int j = (i + 2) % ring.length;
+                sum += (long) ring[i] * ring[j + 1] - (long) ring[j] * ring[i + 1];
+            }
+            return sum / 2;
+        }
+    }
+    
+    /**
+     * Traces all provinces with an ID of 0 or more.
+     * @return the outlines in order of province ID
+     */
+    List<Outline> trace() {
+        edgeCount = 0;
+        final int maxId = findEdges();
+        final PointCounts borders = countBorders();
+        
+        // Group the edges by province.
+        final int[] start = new int[maxId + 2];
+        for (int e = 0; e < edgeCount; e++)
+            start[prov[e] + 1]++;
+        for (int i = 0; i <= maxId; i++)
+            start[i + 1] += start[i];
+        final int[] byProv = new int[edgeCount];
+        final int[] pos = Arrays.copyOf(start, maxId + 1);
+        for (int e = 0; e < edgeCount; e++)
+            byProv[pos[prov[e]]++] = e;
+        
+        final List<Outline> outlines = new ArrayList<>();
+        final List<Ring> rings = new ArrayList<>();
+        for (int p = 0; p <= maxId; p++) {
+            if (start[p] == start[p + 1])
+                continue;
+            rings.clear();
+            joinEdges(byProv, start[p], start[p + 1], borders, rings);
+            final List<int[]> points = new ArrayList<>(rings.size());
+            for (Ring ring : rings) {
+                points.add(ring.simplify(tolerance));
+            }
+            outlines.add(new Outline(p, points));
+        }
+        return outlines;
+    }
+    
+    /**
+     * Reads all lines of id.tbl and collects the edges.
+     * @return the highest province ID found
+     */
+    private int findEdges() {
+        final int width = IdTbl.MAP_WIDTH;
+        final int height = IdTbl.MAP_HEIGHT;
+        final short[] startXs = new short[width + 1];
+        final short[] idBuf = new short[width + 1];
+        
+        // the spans of the line above, as [start, end) ranges
+        int[] aboveStart = { 0 };
+        int[] aboveEnd = { width };
+        int[] aboveId = { OUTSIDE };
+        int aboveCount = 1;
+        int[] curStart = new int[16];
+        int[] curEnd = new int[16];
+        int[] curId = new int[16];
+        
+        // the vertical borders of the line above and of this line
+        Borders prev = new Borders();
+        Borders cur = new Borders();
+        
+        int maxId = -1;
+        for (int y = 0; y <= height; y++) {
+            // the line below the map is all outside
+            int count;
+            if (y < height) {
+                count = id.getSpanCount(y);
+                id.copySpans(y, startXs, idBuf, 0);
+                if (count > curStart.length) {
+                    curStart = new int[count];
+                    curEnd = new int[count];
+                    curId = new int[count];
+                }
+                for (int i = 0; i < count; i++) {
+                    curStart[i] = (i == 0) ? 0 : Math.min(startXs[i], width);
+                    curEnd[i] = (i + 1 < count) ? Math.min(startXs[i + 1], width) : width;
+                    curId[i] = idBuf[i];
+                    maxId = Math.max(maxId, curId[i]);
+                }
+            } else {
+                count = 1;
+                curStart[0] = 0;
+                curEnd[0] = width;
+                curId[0] = OUTSIDE;
+            }
+            
+            addHorizontalEdges(y, aboveStart, aboveEnd, aboveId, aboveCount, curStart, curEnd, curId, count);
+            
+            if (y < height) {
+                cur.clear();
+                int left = OUTSIDE;
+                for (int i = 0; i < count; i++) {
+                    if (curStart[i] >= curEnd[i])
+                        continue;   // empty span
+                    if (curId[i] != left) {
+                        cur.add(curStart[i], left, curId[i]);
+                        left = curId[i];
+                    }
+                }
+                cur.add(width, left, OUTSIDE);
+                addVerticalEdges(y, prev, cur);
+                
+                final Borders swap = prev;
+                prev = cur;
+                cur = swap;
+            }
+            
+            // this line becomes the one above
+            int[] t = aboveStart; aboveStart = curStart; curStart = t;
+            t = aboveEnd; aboveEnd = curEnd; curEnd = t;
+            t = aboveId; aboveId = curId; curId = t;
+            aboveCount = count;
+            if (curStart.length < aboveStart.length) {
+                curStart = new int[aboveStart.length];
+                curEnd = new int[aboveStart.length];
+                curId = new int[aboveStart.length];
+            }
+        }
+        return maxId;
+    }
+    
+    /**
+     * Adds the edges along the line between map line <code>y - 1</code>
+     * (above) and line <code>y</code> (below), joining neighbouring pieces
+     * that separate the same two provinces.
+     */
+    private void addHorizontalEdges(int y, int[] aStart, int[] aEnd, int[] aId, int aCount,
+            int[] bStart, int[] bEnd, int[] bId, int bCount) {
+        int i = 0, j = 0;
+        int x = 0;
+        int lastAbove = OUTSIDE, lastBelow = OUTSIDE;
+        int aboveEdge = -1, belowEdge = -1;   // edges that can still be lengthened
+        while (i < aCount && j < bCount) {
+            final int end = Math.min(aEnd[i], bEnd[j]);
+            if (end > x) {
+                final int above = aId[i];
+                final int below = bId[j];
+                if (above != below) {
+                    if (above == lastAbove && below == lastBelow && (aboveEdge >= 0 || belowEdge >= 0)) {
+                        // continues the previous edge
+                        if (aboveEdge >= 0)
+                            x0[aboveEdge] = end;
+                        if (belowEdge >= 0)
+                            x1[belowEdge] = end;
+                    } else {
+                        // the province above has this as its bottom edge, going left
+                        aboveEdge = addEdge(end, y, x, y, above, below);
+                        // the province below has it as its top edge, going right
+                        belowEdge = addEdge(x, y, end, y, below, above);
+                    }
+                    lastAbove = above;
+                    lastBelow = below;
+                } else {
+                    aboveEdge = belowEdge = -1;
+                    lastAbove = lastBelow = OUTSIDE;
+                }
+                x = end;
+            }
+            if (aEnd[i] <= end)
+                i++;
+            if (bEnd[j] <= end)
+                j++;
+        }
+    }
+    
+    /**
+     * Adds the vertical borders of line <code>y</code>, lengthening the
+     * ones that continue straight down from the line above.
+     */
+    private void addVerticalEdges(int y, Borders prev, Borders cur) {
+        int i = 0;
+        for (int j = 0; j < cur.size; j++) {
+            final int x = cur.x[j];
+            while (i < prev.size && prev.x[i] < x)
+                i++;
+            if (i < prev.size && prev.x[i] == x
+                    && prev.left[i] == cur.left[j] && prev.right[i] == cur.right[j]) {
+                // the same border as in the line above
+                cur.leftEdge[j] = prev.leftEdge[i];
+                cur.rightEdge[j] = prev.rightEdge[i];
+                if (cur.leftEdge[j] >= 0)
+                    y1[cur.leftEdge[j]] = y + 1;
+                if (cur.rightEdge[j] >= 0)
+                    y0[cur.rightEdge[j]] = y + 1;
+            } else {
+                // the province on the left goes down its right side...
+                cur.leftEdge[j] = addEdge(x, y, x, y + 1, cur.left[j], cur.right[j]);
+                // ...and the one on the right goes up its left side
+                cur.rightEdge[j] = addEdge(x, y + 1, x, y, cur.right[j], cur.left[j]);
+            }
+        }
+    }
+    
+    /**
+     * Adds an edge for <code>p</code>, unless it is outside the map.
+     * @return the index of the edge, or -1 if it was not added
+     */
+    private int addEdge(int ax, int ay, int bx, int by, int p, int q) {
+        if (p < 0)
+            return -1;
+        if (edgeCount == x0.length) {
+            final int size = edgeCount * 2;
+            x0 = Arrays.copyOf(x0, size);
+            y0 = Arrays.copyOf(y0, size);
+            x1 = Arrays.copyOf(x1, size);
+            y1 = Arrays.copyOf(y1, size);
+            prov = Arrays.copyOf(prov, size);
+            other = Arrays.copyOf(other, size);
+        }
+        x0[edgeCount] = ax;
+        y0[edgeCount] = ay;
+        x1[edgeCount] = bx;
+        y1[edgeCount] = by;
+        prov[edgeCount] = p;
+        other[edgeCount] = q;
+        return edgeCount++;
+    }
+    
+    /**
+     * Counts the borders that meet at each end of an edge, twice over (a
+     * border between two provinces has an edge for each of them, and one
+     * along the edge of the map counts double). More than two borders means
+     * that the point has to stay when simplifying.
+     */
+    private PointCounts countBorders() {
+        final PointCounts counts = new PointCounts(edgeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            final int weight = (other[e] < 0) ? 2 : 1;
+            counts.add(key(x0[e], y0[e]), weight);
+            counts.add(key(x1[e], y1[e]), weight);
+        }
+        return counts;
+    }
+    
+    /**
+     * Joins the edges <code>edges[from]</code> to
+     * <code>edges[to - 1]</code>, which all belong to one province, into
+     * rings.
+     */
+    private void joinEdges(int[] edges, int from, int to, PointCounts borders, List<Ring> rings) {
+        final int n = to - from;
+        
+        // Open-addressed hash table from start point to edges starting there.
+        int capacity = Integer.highestOneBit(Math.max(n, 2) * 2) * 2;
+        final long[] keys = new long[capacity];
+        final int[] heads = new int[capacity];
+        Arrays.fill(heads, -1);
+        final int[] nextSame = new int[n];
+        for (int k = 0; k < n; k++) {
+            final int e = edges[from + k];
+            final long key = key(x0[e], y0[e]);
+            int slot = slot(key, capacity);
+            while (heads[slot] >= 0 && keys[slot] != key)
+                slot = (slot + 1) & (capacity - 1);
+            keys[slot] = key;
+            nextSame[k] = heads[slot];
+            heads[slot] = k;
+        }
+        
+        final boolean[] used = new boolean[n];
+        for (int first = 0; first < n; first++) {
+            if (used[first])
+                continue;
+            
+            final Ring ring = new Ring();
+            int k = first;
+            final long home = key(x0[edges[from + first]], y0[edges[from + first]]);
+            while (true) {
+                used[k] = true;
+                final int e = edges[from + k];
+                ring.add(x0[e], y0[e], borders.get(key(x0[e], y0[e])) > 2 * 2);
+                
+                final long end = key(x1[e], y1[e]);
+                if (end == home)
+                    break;
+                
+                int slot = slot(end, capacity);
+                while (keys[slot] != end)
+                    slot = (slot + 1) & (capacity - 1);
+                
+                // Where a province only touches itself at a corner, there
+                // are two ways on; turn right to keep the rings apart.
+                int best = -1;
+                int bestTurn = Integer.MIN_VALUE;
+                for (int c = heads[slot]; c >= 0; c = nextSame[c]) {
+                    if (used[c])
+                        continue;
+                    final int f = edges[from + c];
+                    final int turn = Integer.signum((x1[e] - x0[e]) * (y1[f] - y0[f])
+                            - (y1[e] - y0[e]) * (x1[f] - x0[f]));
+                    if (turn > bestTurn) {
+                        best = c;
+                        bestTurn = turn;
+                    }
+                }
+                if (best < 0)
+                    break;  // can't happen if the edges are consistent
+                k = best;
+            }
+            rings.add(ring);
+        }
+    }
+    
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+    
+    private static int slot(long key, int capacity) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (capacity - 1);
+    }
+    
+    /**
+     * An open-addressed hash table of counts, keyed by point.
+     */
+    private static final class PointCounts {
+        private final long[] keys;
+        private final int[] counts;
+        
+        PointCounts(int expected) {
+            final int capacity = Integer.highestOneBit(Math.max(expected, 2) * 2) * 2;
+            keys = new long[capacity];
+            counts = new int[capacity];
+        }
+        
+        private int find(long key) {
+            final int mask = keys.length - 1;
+            int slot = slot(key, keys.length);
+            while (counts[slot] != 0 && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+        
+        void add(long key, int count) {
+            final int slot = find(key);
+            keys[slot] = key;
+            counts[slot] += count;
+        }
+        
+        int get(long key) {
+            return counts[find(key)];
+        }
+    }
+    
+    /**
+     * The vertical borders in one line, in order of x.
+     */
+    private static final class Borders {
+        int size;
+        int[] x = new int[64];
+        int[] left = new int[64];
+        int[] right = new int[64];
+        int[] leftEdge = new int[64];
+        int[] rightEdge = new int[64];
+        
+        void clear() {
+            size = 0;
+        }
+        
+        void add(int bx, int l, int r) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, size * 2);
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+                leftEdge = Arrays.copyOf(leftEdge, size * 2);
+                rightEdge = Arrays.copyOf(rightEdge, size * 2);
+            }
+            x[size] = bx;
+            left[size] = l;
+            right[size] = r;
+            size++;
+        }
+    }
+    
+    /**
+     * A ring of points, with whether each one is a junction of three or
+     * more borders.
+     */
+    private static final class Ring {
+        int size;
+        int[] x = new int[16];
+        int[] y = new int[16];
+        boolean[] junction = new boolean[16];
+        
+        void add(int px, int py, boolean isJunction) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+                junction = Arrays.copyOf(junction, size * 2);
+            }
+            x[size] = px;
+            y[size] = py;
+            junction[size] = isJunction;
+            size++;
+        }
+        
+        /**
+         * Returns the points of the ring as x, y pairs, leaving out the ones
+         * that are not needed to stay within <code>tolerance</code>.
+         */
+        int[] simplify(double tolerance) {
+            // Junctions always stay.
+            final boolean[] keep = new boolean[size];
+            final int[] junctions = new int[size];
+            int junctionCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (junction[i]) {
+                    keep[i] = true;
+                    junctions[junctionCount++] = i;
+                }
+            }
+            
+            if (junctionCount == 0) {
+                // The whole ring borders one other province (or the edge of
+                // the map). Split it at the lowest point and the point farthest
+                // from that, which the other province will pick too.
+                int min = 0;
+                for (int i = 1; i < size; i++) {
+                    if (key(x[i], y[i]) < key(x[min], y[min]))
+                        min = i;
+                }
+                int far = min;
+                long farDist = -1;
+                for (int i = 0; i < size; i++) {
+                    final long dx = x[i] - x[min], dy = y[i] - y[min];
+                    final long dist = dx*dx + dy*dy;
+                    if (dist > farDist || dist == farDist && key(x[i], y[i]) < key(x[far], y[far])) {
+                        far = i;
+                        farDist = dist;
+                    }
+                }
+                keep[min] = true;
+                keep[far] = true;
+                simplifyChain(min, far, keep, tolerance);
+                simplifyChain(far, min, keep, tolerance);
+            } else {
+                for (int k = 0; k < junctionCount; k++) {
+                    simplifyChain(junctions[k], junctions[(k + 1) % junctionCount], keep, tolerance);
+                }
+            }
+            
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (keep[i])
+                    count++;
+            }
+            final int[] points = new int[count * 2];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (keep[i]) {
+                    points[n++] = x[i];
+                    points[n++] = y[i];
+                }
+            }
+            return points;
+        }
+        
+        /**
+         * Marks the points to keep between <code>from</code> and
+         * <code>to</code> (going forward around the ring). The chain is
+         * always simplified starting from the end with the lower key, so
+         * the neighbouring province, which has the same chain the other
+         * way round, gets the same result. If both ends are the same point
+         * (a ring whose only junction is where the province touches itself
+         * at a corner), the chain is the whole ring, and the points next to
+         * the ends decide which way round it goes.
+         */
+        private void simplifyChain(int from, int to, boolean[] keep, double tolerance) {
+            int len = (to - from + size) % size;
+            if (len == 0)
+                len = size;
+            if (len < 2)
+                return;
+            
+            final long fromKey = key(x[from], y[from]);
+            final long toKey = key(x[to], y[to]);
+            final int afterFrom = (from + 1) % size;
+            final int beforeTo = (to - 1 + size) % size;
+            final boolean forward = (fromKey != toKey) ? fromKey < toKey
+                    : key(x[afterFrom], y[afterFrom]) < key(x[beforeTo], y[beforeTo]);
+            final int[] chain = new int[len + 1];
+            for (int k = 0; k <= len; k++) {
+                chain[forward ? k : len - k] = (from + k) % size;
+            }
+            
+            if (tolerance <= 0) {
+                // only drop points in the middle of straight lines
+                for (int k = 1; k < len; k++) {
+                    final int a = chain[k - 1], b = chain[k], c = chain[k + 1];
+                    keep[b] = (long) (x[b] - x[a]) * (y[c] - y[b]) != (long) (y[b] - y[a]) * (x[c] - x[b]);
+                }
+                return;
+            }
+            douglasPeucker(chain, 0, len, tolerance * tolerance, keep);
+        }
+        
+        private void douglasPeucker(int[] chain, int first, int last, double tolSq, boolean[] keep) {
+            // iterative, to be safe on very long chains
+            int[] s = new int[64];
+            int top = 0;
+            s[top++] = first;
+            s[top++] = last;
+            while (top > 0) {
+                final int b = s[--top];
+                final int a = s[--top];
+                final int pa = chain[a], pb = chain[b];
+                final double dx = x[pb] - x[pa], dy = y[pb] - y[pa];
+                final double lenSq = dx*dx + dy*dy;
+                
+                int far = -1;
+                double farDist = tolSq;
+                for (int k = a + 1; k < b; k++) {
+                    final int p = chain[k];
+                    final double px = x[p] - x[pa], py = y[p] - y[pa];
+                    double dist;
+                    if (lenSq == 0) {
+                        dist = px*px + py*py;
+                    } else {
+                        final double cross = px*dy - py*dx;
+                        dist = cross*cross / lenSq;
+                    }
+                    if (dist > farDist) {
+                        far = k;
+                        farDist = dist;
+                    }
+                }
+                
+                for (int k = a + 1; k < b; k++)
+                    keep[chain[k]] = false;
+                if (far >= 0) {
+                    keep[chain[far]] = true;
+                    if (top + 4 > s.length)
+                        s = Arrays.copyOf(s, s.length * 2);
+                    s[top++] = a;
+                    s[top++] = far;
+                    s[top++] = far;
+                    s[top++] = b;
+                }
+            }
+        }
+    }
+}
@@ -7,14 +7,9 @@
 package idmapmaker;
 
 import java.awt.Rectangle;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Class to read and store data from boundbox.tbl.
@@ -67,38 +62,49 @@ public final class BoundboxTbl {
     
     private final ByteBuffer file;
     
-    public BoundboxTbl(String filename) {
-        this(readRawFile(filename));
+    /**
+     * Memory-maps the given boundbox.tbl file.
+     * @throws IOException if the file cannot be read or is not a boundbox.tbl file
+     */
+    public BoundboxTbl(String filename) throws IOException {
+        this(filename, true);
+    }
+    
+    /**
+     * Loads the given boundbox.tbl file, either by memory-mapping it or by
+     * reading it into the heap.
+     * @throws IOException if the file cannot be read or is not a boundbox.tbl file
+     */
+    public BoundboxTbl(String filename, boolean memoryMapped) throws IOException {
+        this(checkFile(filename, TblFile.load(filename, memoryMapped)));
     }
 
     public BoundboxTbl(final byte[] file) {
-        this.file = ByteBuffer.wrap(file);
+        this(ByteBuffer.wrap(file));
+    }
+    
+    /**
+     * Uses the given buffer (which may be a read-only or mapped buffer)
+     * as the contents of boundbox.tbl. The buffer itself is not modified.
+     */
+    public BoundboxTbl(final ByteBuffer file) {
+        this.file = file.duplicate();
         this.file.order(ByteOrder.LITTLE_ENDIAN);
     }
     
-    private static byte[] readRawFile(String filename) {
-        FileInputStream stream = null;
-        try {
-            File file = new File(filename);
-            byte[] buf = new byte[(int) file.length()];
-            stream = new FileInputStream(file);
-            if (stream.read(buf) != buf.length) {
-                System.err.println("???");
-            }
-            stream.close();
-            return buf;
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(BoundboxTbl.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(BoundboxTbl.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            try {
-                stream.close();
-            } catch (IOException ex) {
-                Logger.getLogger(BoundboxTbl.class.getName()).log(Level.SEVERE, null, ex);
-            }
+    private static ByteBuffer checkFile(String filename, ByteBuffer buf) throws IOException {
+        if (buf.limit() < 16) {
+            throw new IOException(filename + " is not a valid boundbox.tbl file: it is only "
+                    + buf.limit() + " bytes long");
         }
-        return null;
+        return buf;
+    }
+    
+    /**
+     * Returns the number of boundboxes in the file.
+     */
+    public int getProvinceCount() {
+        return file.limit() / 16;
     }
     
     public Rectangle getBounds(int provId) {
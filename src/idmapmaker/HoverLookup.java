@@ -0,0 +1,135 @@
+/*
+ * HoverLookup.java
+ *
+ * Created on Oct 18, 2026, 1:52:27 AM
+ */
+
+package idmapmaker;
+
+/**
+ * Looks up the province under the mouse pointer.
+ * <p>
+ * Mouse moves come in long runs of points close to each other, mostly on
+ * the same line and in the same span as the point before. So the spans of
+ * the last line looked up are kept decoded, along with the span of the last
+ * hit: a lookup on the same line tries that span and the ones next to it
+ * before searching the line, and only a move to another line decodes it.
+ * Nothing is allocated after construction.
+ * <p>
+ * Counters of lookups, line decodes and hits in the last span are always
+ * kept; the time spent in lookups is added up only if timing is turned on,
+ * since {@link System#nanoTime()} costs about as much as a lookup.
+ * <p>
+ * Not thread-safe; it is meant to be used on the event dispatch thread.
+ */
+final class HoverLookup {
+    
+    private final IdTbl id;
+    
+    // the spans of line rowY
+    private final short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+    private final short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+    private int rowY = -1;
+    private int spanCount;
+    private int rowEnd;
+    private int lastSpan;
+    
+    private boolean timing = false;
+    private long lookups;
+    private long rowDecodes;
+    private long lastSpanHits;
+    private long lookupNanos;
+    
+    HoverLookup(IdTbl id) {
+        this.id = id;
+    }
+    
+    /**
+     * Returns the province ID at the given point, or -1 if the point is not
+     * on the map, like {@link IdTbl#getId(int, int)}.
+     */
+    int getId(int x, int y) {
+        if (!timing)
+            return lookup(x, y);
+        
+        final long start = System.nanoTime();
+        final int ret = lookup(x, y);
+        lookupNanos += System.nanoTime() - start;
+        return ret;
+    }
+    
+    private int lookup(int x, int y) {
+        lookups++;
+        if (y < 0 || y >= IdTbl.MAP_HEIGHT || x < 0)
+            return -1;
+        
+        if (y != rowY) {
+            spanCount = id.getSpanCount(y);
+            rowEnd = id.copySpans(y, startX, ids, 0);
+            rowY = y;
+            lastSpan = 0;
+            rowDecodes++;
+        }
+        if (x < startX[0] || x >= rowEnd)
+            return -1;
+        
+        int i = lastSpan;
+        if (x >= startX[i] && (i + 1 == spanCount || x < startX[i + 1])) {
+            lastSpanHits++;
+            return ids[i];
+        }
+        
+        // then its neighbors, and then a binary search of the line
+        if (i + 1 < spanCount && x >= startX[i + 1] && (i + 2 == spanCount || x < startX[i + 2])) {
+            i++;
+        } else if (i > 0 && x >= startX[i - 1] && x < startX[i]) {
+            i--;
+        } else {
+            int lo = 0;
+            int hi = spanCount - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi + 1) >>> 1;
+                if (startX[mid] <= x)
+                    lo = mid;
+                else
+                    hi = mid - 1;
+            }
+            i = lo;
+        }
+        lastSpan = i;
+        return ids[i];
+    }
+    
+    /**
+     * Sets whether to measure how long lookups take.
+     */
+    void setTiming(boolean timing) {
+        this.timing = timing;
+    }
+    
+    long getLookupCount() {
+        return lookups;
+    }
+    
+    long getRowDecodeCount() {
+        return rowDecodes;
+    }
+    
+    long getLastSpanHitCount() {
+        return lastSpanHits;
+    }
+    
+    /**
+     * Returns the average time of a lookup in nanoseconds, or 0 if timing
+     * is off or nothing has been looked up yet.
+     */
+    double getAverageNanos() {
+        return (lookups == 0) ? 0 : (double) lookupNanos / lookups;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d lookups, %d line decodes, %d hits in the last span, %.0f ns per lookup",
+                lookups, rowDecodes, lastSpanHits, getAverageNanos());
+    }
+}
@@ -13,12 +13,14 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
-import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
+import java.awt.image.RenderedImage;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  *
@@ -29,15 +31,28 @@ public class IDMapPanel extends javax.swing.JPanel {
     private IdTbl id;
     private BoundboxTbl bounds;
     private BufferedImage image;
-    private BufferedImage scaledImage;
+    private MapPyramid pyramid;
+    private MapTiles tiles;
+    private long tileCacheBytes = MapTiles.DEFAULT_MAX_BYTES;
+    private static ExecutorService tileRenderer;
+    private LabelLayer labelLayer;
+    private ProvinceStats stats;
+    private HoverLookup hover;
     private double scaleFactor = 0.1;
     private static final double DEFAULT_ZOOM_AMOUNT = 0.025;
     private static final double MIN_SCALE = 0.001;
     private static final double MAX_SCALE = 2.0;
+    /**
+     * Scales are kept to multiples of <code>1 / SCALE_STEPS</code>, so
+     * zooming in and back out lands on exactly the same scale, and the
+     * tiles cached for it, instead of one off by a rounding error.
+     */
+    private static final int SCALE_STEPS = 1000;
     
     private boolean paintIds = false;
     private boolean paintNames = false;
     private boolean paintSeaIds = false;
+    private boolean declutterLabels = true;
     
     public IDMapPanel() {
         initComponents();
@@ -71,82 +86,86 @@ public class IDMapPanel extends javax.swing.JPanel {
     }
     
     private void rescaleMap() {
+        // The tiles for the new scale are rendered in the background once
+        // they are painted; until then the old ones are shown stretched.
+        revalidate();
+    }
+    
+    /**
+     * Returns a copy of <code>image</code> scaled by the given factor.
+     */
+    static BufferedImage scaleImage(BufferedImage image, double scaleFactor) {
         final BufferedImageOp scaleOp =
                 new AffineTransformOp(
                 new AffineTransform(scaleFactor, 0.0, 0.0, scaleFactor, 0.0, 0.0),
                 scalingHints
                 );
         
-        if (scaledImage != null) {
-            scaledImage.flush();
-            scaledImage = null;
-        }
-        
-        scaledImage = new BufferedImage(
+        final BufferedImage scaled = new BufferedImage(
                 (int) Math.ceil(image.getWidth() * scaleFactor),
                 (int) Math.ceil(image.getHeight() * scaleFactor),
                 image.getType()
                 );
         
-        Graphics2D g = scaledImage.createGraphics();
+        Graphics2D g = scaled.createGraphics();
         g.drawImage(image, scaleOp, 0, 0);
         
         g.dispose();
+        
+        return scaled;
     }
             
     @Override
     protected void paintComponent(Graphics g) {
-        if (scaledImage != null) {
-            ((Graphics2D)g).drawImage(scaledImage, 0, 0, null);
-            if (paintIds)
-                paintIds((Graphics2D)g, scaleFactor);
-            else if (paintNames)
-                paintNames((Graphics2D)g, scaleFactor);
+        if (tiles != null) {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null)
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            tiles.paint((Graphics2D)g, clip, scaleFactor);
+            if (bounds != null)
+                paintLabels((Graphics2D)g, clip, scaleFactor, getLabelLayer(), paintIds, paintNames, paintSeaIds,
+                        declutterLabels);
         }
     }
     
-    private void paintIds(final Graphics2D g, double scaleFactor) {
-        final Font oldFont = g.getFont();
-        final Font newFont = oldFont.deriveFont((float)(32.0*scaleFactor)).deriveFont(Font.BOLD);
-        g.setFont(newFont);
-        final FontRenderContext frc = g.getFontRenderContext();
-        final ProvinceData data = id.getProvinceData();
-        for (int i = 1; i < ProvinceData.NUM_PROVINCES; i++) {
-            if (paintSeaIds || data.isLand(i)) {
-                final String str = paintNames ? (i + " (" + data.getName(i) + ")") : Integer.toString(i);
-                Rectangle provBounds = bounds.getBounds(i);
-                Rectangle2D stringBounds = newFont.getStringBounds(str, frc);
-                g.drawString(str,
-                        (float) (provBounds.getX()*scaleFactor + (provBounds.getWidth()*scaleFactor-stringBounds.getWidth())/2.0),
-                        (float) (provBounds.getY()*scaleFactor + (provBounds.getHeight()*scaleFactor+stringBounds.getHeight())/2.0));
-            }
-        }
-        g.setFont(oldFont);
+    /**
+     * Paints province IDs or names, whichever is turned on. If both are,
+     * each label is the ID followed by the name. Only labels that
+     * intersect <code>clip</code> are painted; if it is <code>null</code>,
+     * all of them are.
+     */
+    static void paintLabels(final Graphics2D g, Rectangle clip, double scaleFactor, LabelLayer labels,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds) {
+        paintLabels(g, clip, scaleFactor, labels, paintIds, paintNames, paintSeaIds, false);
     }
     
-    private void paintNames(final Graphics2D g, double scaleFactor) {
+    /**
+     * Paints the labels like
+     * {@link #paintLabels(Graphics2D, Rectangle, double, LabelLayer, boolean, boolean, boolean)},
+     * but if <code>declutter</code> is set, leaves out those that would
+     * overlap the labels of bigger provinces.
+     */
+    static void paintLabels(final Graphics2D g, Rectangle clip, double scaleFactor, LabelLayer labels,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds, boolean declutter) {
+        if (!paintIds && !paintNames)
+            return;
+        
         final Font oldFont = g.getFont();
-        final Font newFont = oldFont.deriveFont((float)(32.0*scaleFactor));
-        g.setFont(newFont);
-        final FontRenderContext frc = g.getFontRenderContext();
-        final ProvinceData data = id.getProvinceData();
-        for (int i = 1; i < ProvinceData.NUM_PROVINCES; i++) {
-            if (data.isLand(i)) {
-                final String str = data.getName(i);
-                Rectangle provBounds = bounds.getBounds(i);
-                Rectangle2D stringBounds = newFont.getStringBounds(str, frc);
-                g.drawString(str,
-                        (float) (provBounds.getX()*scaleFactor + (provBounds.getWidth()*scaleFactor-stringBounds.getWidth())/2.0),
-                        (float) (provBounds.getY()*scaleFactor + (provBounds.getHeight()*scaleFactor-stringBounds.getHeight())/2.0));
-            }
+        if (paintIds) {
+            g.setFont(oldFont.deriveFont((float)(32.0*scaleFactor)).deriveFont(Font.BOLD));
+            labels.paint(g, clip, scaleFactor,
+                    paintNames ? LabelLayer.MODE_IDS_AND_NAMES : LabelLayer.MODE_IDS, paintSeaIds, declutter);
+        } else {
+            g.setFont(oldFont.deriveFont((float)(32.0*scaleFactor)));
+            labels.paint(g, clip, scaleFactor, LabelLayer.MODE_NAMES, false, declutter);
         }
         g.setFont(oldFont);
     }
 
     @Override
     public Dimension getPreferredSize() {
-        if (scaledImage != null) {
-            return new Dimension(scaledImage.getWidth(), scaledImage.getHeight());
+        if (tiles != null) {
+            return new Dimension(tiles.getWidth(scaleFactor), tiles.getHeight(scaleFactor));
         }
         return super.getPreferredSize();
     }
@@ -157,7 +176,7 @@ public class IDMapPanel extends javax.swing.JPanel {
     
     public void zoomIn(double amount) {
         if (scaleFactor <= MAX_SCALE - amount) {
-            scaleFactor += amount;
+            scaleFactor = snapScale(scaleFactor + amount);
             rescaleMap();
         }
     }
@@ -168,10 +187,14 @@ public class IDMapPanel extends javax.swing.JPanel {
     
     public void zoomOut(double amount) {
         if (scaleFactor >= amount + MIN_SCALE) {
-            scaleFactor -= amount;
+            scaleFactor = snapScale(scaleFactor - amount);
             rescaleMap();
         }
     }
+    
+    private static double snapScale(double scale) {
+        return Math.round(scale * SCALE_STEPS) / (double) SCALE_STEPS;
+    }
 
     public IdTbl getId() {
         return id;
@@ -180,23 +203,118 @@ public class IDMapPanel extends javax.swing.JPanel {
     public final void setId(IdTbl id) {
         this.id = id;
         image = id.getImage();
+        pyramid = new MapPyramid(image, id.getRenderPool());
+        tiles = createTiles(tileCacheBytes);
+        hover = new HoverLookup(id);
+        labelLayer = null;
         rescaleMap();
     }
 
+    /**
+     * Updates the display after the pixels of the map image inside
+     * <code>regions</code> (in full-size map coordinates) have been drawn
+     * again. The labels are all rebuilt, since province names may have
+     * changed too.
+     */
+    void mapChanged(List<Rectangle> regions) {
+        if (tiles == null)
+            return;
+        for (Rectangle region : regions) {
+            pyramid.update(region, id.getRenderPool());
+            tiles.invalidate(region);
+        }
+        labelLayer = null;
+        repaint();
+    }
+    
+    /**
+     * Sets how many bytes of rendered tiles to keep. Tiles beyond that are
+     * only kept as long as the garbage collector lets them.
+     */
+    public void setTileCacheBudget(long bytes) {
+        tileCacheBytes = bytes;
+        if (tiles != null) {
+            tiles = createTiles(bytes);
+            repaint();
+        }
+    }
+    
+    private MapTiles createTiles(long bytes) {
+        if (tiles != null)
+            tiles.setRenderer(null, null);  // cancels anything still queued
+        final MapTiles ret = new MapTiles(pyramid, bytes);
+        ret.setRenderer(getTileRenderer(), this);
+        return ret;
+    }
+    
+    /**
+     * Returns the threads that tiles are rendered in, so that painting never
+     * waits for a new zoom level to be drawn.
+     */
+    private static synchronized ExecutorService getTileRenderer() {
+        if (tileRenderer == null) {
+            final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            tileRenderer = Executors.newFixedThreadPool(threads, task -> {
+                final Thread thread = new Thread(task, "TileRenderer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return tileRenderer;
+    }
+    
+    /**
+     * Returns the tile cache, for its statistics, or <code>null</code> if
+     * there is no map yet.
+     */
+    MapTiles getTiles() {
+        return tiles;
+    }
+    
     public BoundboxTbl getBoundbox() {
         return bounds;
     }
 
     public final void setBoundbox(BoundboxTbl bounds) {
         this.bounds = bounds;
+        labelLayer = null;
+    }
+    
+    public ProvinceStats getProvinceStats() {
+        return stats;
+    }
+    
+    /**
+     * Sets the statistics whose label anchors the labels are centered on.
+     * If <code>null</code>, labels are centered on the boundboxes.
+     */
+    public void setProvinceStats(ProvinceStats stats) {
+        this.stats = stats;
+        labelLayer = null;
+        repaint();
+    }
+    
+    private LabelLayer getLabelLayer() {
+        if (labelLayer == null)
+            labelLayer = new LabelLayer(id, bounds, stats);
+        return labelLayer;
     }
     
     public ProvinceData.Province getProvince(int provid) {
         return id.getProvinceData().getProvince(provid);
     }
     
+    /**
+     * Returns the ID of the province at the given point of the panel. This
+     * is meant for following the mouse, so it must be called on the event
+     * dispatch thread.
+     */
     public int getProvId(int x, int y) {
-        return id.getId((int) (x/scaleFactor), (int) (y/scaleFactor));
+        return hover.getId((int) (x/scaleFactor), (int) (y/scaleFactor));
+    }
+    
+    HoverLookup getHoverLookup() {
+        return hover;
     }
 
     public boolean isPaintIds() {
@@ -215,6 +333,19 @@ public class IDMapPanel extends javax.swing.JPanel {
         this.paintSeaIds = paintSeaIds;
     }
 
+    public boolean isDeclutterLabels() {
+        return declutterLabels;
+    }
+    
+    /**
+     * Sets whether to leave out labels that would overlap the labels of
+     * bigger provinces, so that zooming out shows fewer labels instead of
+     * a jumble of them. Exported images always have every label.
+     */
+    public void setDeclutterLabels(boolean declutterLabels) {
+        this.declutterLabels = declutterLabels;
+    }
+    
     public boolean isPaintNames() {
         return paintNames;
     }
@@ -224,14 +355,53 @@ public class IDMapPanel extends javax.swing.JPanel {
     }
     
     public BufferedImage createFullScaleImage() {
-        BufferedImage ret = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        return createImage(id, bounds, stats, 1.0, paintIds, paintNames, paintSeaIds);
+    }
+    
+    /**
+     * Returns the same image as {@link #createFullScaleImage()}, but drawn a
+     * strip at a time as it is written instead of all at once.
+     */
+    public RenderedImage createExportImage() {
+        return new MapStripImage(id, getLabelLayer(), paintIds, paintNames, paintSeaIds,
+                MapStripImage.DEFAULT_STRIP_HEIGHT);
+    }
+    
+    /**
+     * Creates the full-size map with labels painted on it, drawn a strip at
+     * a time from the spans in id.tbl as an image writer reads it.
+     * @param stats the statistics to place the labels by, or
+     * <code>null</code> to center them on the boundboxes
+     */
+    static RenderedImage createStreamingImage(IdTbl id, BoundboxTbl bounds, ProvinceStats stats,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds) {
+        return new MapStripImage(id, bounds, stats, paintIds, paintNames, paintSeaIds);
+    }
+    
+    /**
+     * Creates a copy of the map at the given scale with labels painted on
+     * it. This does not need a panel, so it also works in headless mode.
+     * @param stats the statistics to place the labels by, or
+     * <code>null</code> to center them on the boundboxes
+     */
+    static BufferedImage createImage(IdTbl id, BoundboxTbl bounds, ProvinceStats stats, double scaleFactor,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds) {
+        final BufferedImage ret;
+        if (scaleFactor == 1.0) {
+            final BufferedImage image = id.getImage();
+            ret = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+            Graphics2D g = ret.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        } else if (scaleFactor < 1.0) {
+            // drawn straight from the spans, without the full-size image
+            ret = SpanDownsampler.downsample(id, scaleFactor, id.getRenderPool());
+        } else {
+            ret = scaleImage(id.getImage(), scaleFactor);
+        }
         Graphics2D g = ret.createGraphics();
-        g.drawImage(image, 0, 0, null);
         g.setColor(Color.BLACK);
-        if (paintIds)
-            paintIds(g, 1.0);
-        else if (paintNames)
-            paintNames(g, 1.0);
+        paintLabels(g, null, scaleFactor, new LabelLayer(id, bounds, stats), paintIds, paintNames, paintSeaIds);
         g.dispose();
         
         return ret;
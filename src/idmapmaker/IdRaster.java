@@ -0,0 +1,110 @@
+/*
+ * IdRaster.java
+ *
+ * Created on Oct 18, 2026, 2:21:06 AM
+ */
+
+package idmapmaker;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The whole of id.tbl decoded into one 16-bit province ID per pixel, so
+ * that looking up a point is a single read.
+ * <p>
+ * This is the other end of the trade-off from {@link SpanIndex}: the
+ * raster takes {@link #SIZE_IN_BYTES} (about 276 MB) no matter how simple
+ * the map is, against a few megabytes for the spans, but a lookup no
+ * longer depends on how many spans there are in the line. The raster is
+ * kept in a direct buffer, outside the Java heap, so it is not copied
+ * around by the garbage collector; the JVM's limit on direct memory
+ * (<code>-XX:MaxDirectMemorySize</code>, by default the same as the heap
+ * size) must leave room for it.
+ * <p>
+ * Pixels that no span covers read as -1.
+ * @see IdTbl#setUseRaster(boolean)
+ */
+public final class IdRaster {
+    
+    /** The number of bytes the raster takes. */
+    public static final long SIZE_IN_BYTES = 2L * IdTbl.MAP_WIDTH * IdTbl.MAP_HEIGHT;
+    
+    private final ShortBuffer raster;
+    
+    private IdRaster(ShortBuffer raster) {
+        this.raster = raster;
+    }
+    
+    /**
+     * Decodes every line of the given id.tbl, in parallel if a pool is given.
+     * @param pool the pool to decode in, or <code>null</code> to decode on
+     * the calling thread
+     * @throws OutOfMemoryError if there is not enough direct memory
+     */
+    static IdRaster build(final IdTbl id, ForkJoinPool pool) {
+        final ShortBuffer raster = ByteBuffer.allocateDirect((int) SIZE_IN_BYTES)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        
+        RowBands.run(pool, 0, IdTbl.MAP_HEIGHT, (startY, endY) -> {
+            final int width = IdTbl.MAP_WIDTH;
+            final short[] startX = new short[width + 1];
+            final short[] ids = new short[width + 1];
+            final short[] row = new short[width];
+            // each band writes through its own view, since puts move the position
+            final ShortBuffer out = raster.duplicate();
+            for (int y = startY; y < endY; y++) {
+                final int n = id.getSpanCount(y);
+                final int end = Math.min(id.copySpans(y, startX, ids, 0), width);
+                int x = 0;
+                for (; x < startX[0]; x++) {
+                    row[x] = -1;
+                }
+                for (int i = 0; i < n; i++) {
+                    final int x2 = (i + 1 < n) ? startX[i + 1] : end;
+                    final short provId = ids[i];
+                    for (; x < x2; x++) {
+                        row[x] = provId;
+                    }
+                }
+                for (; x < width; x++) {
+                    row[x] = -1;
+                }
+                out.position(y * width);
+                out.put(row);
+            }
+        });
+        
+        return new IdRaster(raster);
+    }
+    
+    /**
+     * Returns the province ID at the given point, or -1 if the point is not
+     * on the map.
+     */
+    public int getId(int x, int y) {
+        if (x < 0 || x >= IdTbl.MAP_WIDTH || y < 0 || y >= IdTbl.MAP_HEIGHT)
+            return -1;
+        return raster.get(y * IdTbl.MAP_WIDTH + x);
+    }
+    
+    /**
+     * Looks up <code>count</code> points at once.
+     * <code>out[i]</code> is set to the ID at
+     * (<code>xs[i]</code>, <code>ys[i]</code>).
+     */
+    public void getIds(int[] xs, int[] ys, int[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = getId(xs[i], ys[i]);
+        }
+    }
+    
+    /**
+     * Returns the number of bytes taken up by the raster.
+     */
+    public long getSizeInBytes() {
+        return SIZE_IN_BYTES;
+    }
+}
@@ -9,14 +9,13 @@ package idmapmaker;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class to read and store data from id.tbl.
@@ -72,56 +71,127 @@ import java.util.logging.Logger;
  */
 public class IdTbl {
     
-    private static final int MAP_WIDTH = 18944;
-    private static final int MAP_HEIGHT = 7296;
+    static final int MAP_WIDTH = 18944;
+    static final int MAP_HEIGHT = 7296;
 //    private static final int OFFSET_END = MAP_HEIGHT*4; // 4 bytes per int
     
-    private final ProvinceData province;
+    private volatile ProvinceData province;
     private BufferedImage image;
     
     private final ByteBuffer file;
     
+    private ForkJoinPool renderPool = ForkJoinPool.commonPool();
+    private volatile SpanIndex spanIndex;
+    private volatile IdRaster raster;
+    private volatile ProvinceGraph provinceGraph;
+    
     private static final Color oceanColor = new Color(111, 168, 223);
 //    private static final Color landColor = new Color(255, 243, 200);
     private static final Color ptiColor = Color.BLACK;
+    private static final Color borderColor = Color.BLACK;
+    private static final Color backgroundColor = Color.WHITE;
+    
+    private static final byte OCEAN_PIXEL = paletteIndex(oceanColor);
+    private static final byte PTI_PIXEL = paletteIndex(ptiColor);
+    private static final byte BORDER_PIXEL = paletteIndex(borderColor);
+    private static final byte BACKGROUND_PIXEL = paletteIndex(backgroundColor);
+    
+    private static final IndexColorModel PALETTE = (IndexColorModel)
+            new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_INDEXED).getColorModel();
     
     
-    public IdTbl(String filename, ProvinceData data) {
-        this(readRawFile(filename), data);
+    /**
+     * Memory-maps the given id.tbl file.
+     * @throws IOException if the file cannot be read or is not an id.tbl file
+     */
+    public IdTbl(String filename, ProvinceData data) throws IOException {
+        this(filename, data, true);
+    }
+    
+    /**
+     * Loads the given id.tbl file, either by memory-mapping it or by reading
+     * it into the heap.
+     * @throws IOException if the file cannot be read or is not an id.tbl file
+     */
+    public IdTbl(String filename, ProvinceData data, boolean memoryMapped) throws IOException {
+        this(load(filename, memoryMapped), data);
     }
     
     public IdTbl(final byte[] file, ProvinceData data) {
-        this.file = ByteBuffer.wrap(file);
+        this(ByteBuffer.wrap(file), data);
+    }
+    
+    /**
+     * Uses the given buffer (which may be a read-only or mapped buffer)
+     * as the contents of id.tbl. The buffer itself is not modified.
+     */
+    public IdTbl(final ByteBuffer file, ProvinceData data) {
+        this.file = file.duplicate();
         this.file.order(ByteOrder.LITTLE_ENDIAN);
         province = data;
     }
     
-    private static byte[] readRawFile(String filename) {
-        FileInputStream stream = null;
-        try {
-            File file = new File(filename);
-            byte[] buf = new byte[(int) file.length()];
-            stream = new FileInputStream(file);
-            if (stream.read(buf) != buf.length) {
-                System.err.println("???");
-            }
-            stream.close();
-            return buf;
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(IdTbl.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(IdTbl.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            try {
-                stream.close();
-            } catch (IOException ex) {
-                Logger.getLogger(IdTbl.class.getName()).log(Level.SEVERE, null, ex);
-            }
+    /**
+     * Reads or maps the given id.tbl file and checks that it is big enough
+     * to be one. This does not need the province data, so it can be done
+     * while province.csv is still being read.
+     */
+    static ByteBuffer load(String filename, boolean memoryMapped) throws IOException {
+        return checkFile(filename, TblFile.load(filename, memoryMapped));
+    }
+    
+    private static ByteBuffer checkFile(String filename, ByteBuffer buf) throws IOException {
+        final int headerSize = 4 * (MAP_HEIGHT + 1);
+        if (buf.limit() < headerSize) {
+            throw new IOException(filename + " is not a valid id.tbl file: it is "
+                    + buf.limit() + " bytes long, but the line offsets alone take "
+                    + headerSize + " bytes");
         }
-        return null;
+        return buf;
     }
     
+    /**
+     * Returns the province ID at the given point, or -1 if the point is not
+     * on the map.
+     */
     public int getId(int x, int y) {
+        if (y < 0 || y >= MAP_HEIGHT)
+            return -1;
+        
+        final IdRaster r = raster;
+        if (r != null)
+            return r.getId(x, y);
+        
+        final SpanIndex index = spanIndex;
+        if (index != null)
+            return index.getId(x, y);
+        
+        return scanId(x, y);
+    }
+    
+    /**
+     * Looks up <code>count</code> points at once.
+     * <code>out[i]</code> is set to the ID at
+     * (<code>xs[i]</code>, <code>ys[i]</code>).
+     */
+    public void getIds(int[] xs, int[] ys, int[] out, int count) {
+        final IdRaster r = raster;
+        final SpanIndex index = spanIndex;
+        if (r != null) {
+            r.getIds(xs, ys, out, count);
+        } else if (index != null) {
+            index.getIds(xs, ys, out, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                out[i] = getId(xs[i], ys[i]);
+            }
+        }
+    }
+    
+    /**
+     * Finds the ID at the given point by reading the line's spans in order.
+     */
+    int scanId(int x, int y) {
         int relativeOffset = file.getInt(y*4);
         int realOffset = 4 * (MAP_HEIGHT + 1 + relativeOffset);
         
@@ -129,7 +199,7 @@ public class IdTbl {
         
         int endOffset = 4 * (MAP_HEIGHT + 1 + file.getInt((y+1)*4));
         
-        if (realOffset+1 > file.capacity())
+        if (realOffset+1 > file.limit())
             return -1;
         
         short lastX = file.getShort(realOffset);
@@ -137,7 +207,7 @@ public class IdTbl {
         for (; realOffset < endOffset; realOffset += 4) {
             short startX = lastX;
             if (startX > x)
-                continue;
+                break;  // the spans are in order, so we've gone past it
             lastX = file.getShort(realOffset + 2);
             if (lastX > x) {
                 // found what we want.
@@ -147,27 +217,174 @@ public class IdTbl {
         
         return -1;
     }
+    
+    /**
+     * Returns the number of spans in line <code>y</code>.
+     */
+    int getSpanCount(int y) {
+        int realOffset = 4 * (MAP_HEIGHT + 1 + file.getInt(y*4)) + 2;
+        int count = 1;
+        while (file.getShort(realOffset + 2) < MAP_WIDTH) {
+            realOffset += 4;
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Copies the start X values and IDs of the spans in line <code>y</code>
+     * into the given arrays, starting at <code>pos</code>.
+     * @return the end X value of the last span in the line
+     */
+    short copySpans(int y, short[] startX, short[] ids, int pos) {
+        int realOffset = 4 * (MAP_HEIGHT + 1 + file.getInt(y*4));
+        short x = file.getShort(realOffset);
+        realOffset += 2;
+        while (true) {
+            startX[pos] = x;
+            ids[pos] = file.getShort(realOffset);
+            x = file.getShort(realOffset + 2);
+            pos++;
+            if (x >= MAP_WIDTH)
+                return x;
+            realOffset += 4;
+        }
+    }
+    
+    /**
+     * Returns the bytes that encode the spans of line <code>y</code>, as a
+     * view of the file from the start of the line to the start of the
+     * next one. Two lines with the same bytes have the same spans.
+     */
+    ByteBuffer getLineBytes(int y) {
+        final int start = 4 * (MAP_HEIGHT + 1 + file.getInt(y*4));
+        final int end = Math.min(4 * (MAP_HEIGHT + 1 + file.getInt((y+1)*4)), file.limit());
+        final ByteBuffer ret = file.duplicate();
+        ret.limit(Math.max(start, end));
+        ret.position(start);
+        return ret;
+    }
+    
+    /**
+     * Turns the decoded span index on or off. With the index, looking up an
+     * ID is a binary search through the line's spans instead of a linear
+     * scan, at the cost of a decoded copy of the spans (about as big as
+     * id.tbl itself). The index is built in the render pool.
+     * @see SpanIndex
+     */
+    public void setUseSpanIndex(boolean useIndex) {
+        if (!useIndex)
+            spanIndex = null;
+        else if (spanIndex == null)
+            spanIndex = SpanIndex.build(this, renderPool);
+    }
+    
+    public boolean isUsingSpanIndex() {
+        return spanIndex != null;
+    }
+    
+    /**
+     * Returns the span index, or <code>null</code> if it is not in use.
+     */
+    public SpanIndex getSpanIndex() {
+        return spanIndex;
+    }
+    
+    /**
+     * Turns the decoded ID raster on or off. With the raster, looking up an
+     * ID is a single read, at the cost of {@link IdRaster#SIZE_IN_BYTES}
+     * of direct memory. It takes priority over the span index. The raster
+     * is decoded in the render pool.
+     * @throws OutOfMemoryError if there is not enough direct memory for the
+     * raster, in which case the spans are still used
+     * @see IdRaster
+     */
+    public void setUseRaster(boolean useRaster) {
+        if (!useRaster)
+            raster = null;
+        else if (raster == null)
+            raster = IdRaster.build(this, renderPool);
+    }
+    
+    public boolean isUsingRaster() {
+        return raster != null;
+    }
+    
+    /**
+     * Returns the ID raster, or <code>null</code> if it is not in use.
+     */
+    public IdRaster getRaster() {
+        return raster;
+    }
+    
+    /**
+     * Returns which provinces border which. The graph is built in the
+     * render pool the first time it is asked for, and kept after that;
+     * it doesn't depend on the province data, so it never goes stale.
+     */
+    public ProvinceGraph getProvinceGraph() {
+        ProvinceGraph graph = provinceGraph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = provinceGraph;
+                if (graph == null)
+                    provinceGraph = graph = ProvinceGraph.build(this, renderPool);
+            }
+        }
+        return graph;
+    }
 
     
     private final BufferedImage draw() {
         final BufferedImage img =
                 new BufferedImage(MAP_WIDTH, MAP_HEIGHT, BufferedImage.TYPE_BYTE_INDEXED);
         
-        final Graphics2D g = img.createGraphics();
-        
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, MAP_WIDTH, MAP_HEIGHT);
+        // The spans are written straight into the image's backing array.
+        // The fills and borders are done in the same order as drawing them
+        // with Graphics2D.drawLine would, so the result is identical.
+        final byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
         
-        g.setColor(Color.BLACK);
+        // The first line is never drawn, so it is left in the background color.
+        Arrays.fill(pixels, 0, MAP_WIDTH, BACKGROUND_PIXEL);
         
-//        final int end = file.getInt(0);
+        RowBands.run(renderPool, 1, MAP_HEIGHT, (startY, endY) -> drawRows(pixels, startY, endY, 0));
         
-        for (int y = 1; y < MAP_HEIGHT; y++) {
-            int relativeOffset = file.getInt(y*4);
-            int realOffset = 4 * (MAP_HEIGHT + 1 + relativeOffset);
+        return img;
+    }
+    
+    /**
+     * Draws just the lines from <code>startY</code> (inclusive) to
+     * <code>endY</code> (exclusive) into <code>pixels</code>, with line
+     * <code>startY</code> at the start of the array. The result is the same
+     * as the corresponding part of {@link #getImage()}, without drawing or
+     * keeping the whole map.
+     */
+    void drawStrip(final byte[] pixels, final int startY, int endY) {
+        if (startY == 0) {
+            Arrays.fill(pixels, 0, MAP_WIDTH, BACKGROUND_PIXEL);
+        }
+        RowBands.run(renderPool, Math.max(startY, 1), endY,
+                (bandStart, bandEnd) -> drawRows(pixels, bandStart, bandEnd, startY));
+    }
+    
+    /**
+     * Rasterizes the lines from <code>startY</code> (inclusive) to
+     * <code>endY</code> (exclusive) into <code>pixels</code>, which must be
+     * the backing array of a <code>MAP_WIDTH</code> wide
+     * <code>TYPE_BYTE_INDEXED</code> image whose first line is line
+     * <code>originY</code> of the map.
+     * <p>
+     * Each line only touches its own part of the array, so different line
+     * ranges can safely be drawn at the same time.
+     */
+    private void drawRows(final byte[] pixels, int startY, int endY, int originY) {
+        final ProvinceData province = this.province;
+        for (int y = startY; y < endY; y++) {
+            final int rowStart = (y - originY) * MAP_WIDTH;
+            // land is left in the background color
+            Arrays.fill(pixels, rowStart, rowStart + MAP_WIDTH, BACKGROUND_PIXEL);
             
-//            System.out.println("relativeOffset = " + relativeOffset);
-//            System.out.println("realOffset = " + realOffset);
+            int realOffset = 4 * (MAP_HEIGHT + 1 + file.getInt(y*4));
             
             short x = file.getShort(realOffset);
             realOffset += 2;
@@ -178,20 +395,14 @@ public class IdTbl {
                 x = file.getShort(realOffset + 2);
                 
                 if (province.isPTI(id)) {
-                    g.setColor(ptiColor);
-                    g.drawLine(startX, y, x, y);
+                    drawSpan(pixels, rowStart, startX, x, PTI_PIXEL);
                 } else if (!province.isLand(id)) {
-                    g.setColor(oceanColor);
-                    g.drawLine(startX, y, x, y);
-                } /*else {
-                    g.setColor(landColor);
-                    g.drawLine(startX, y, endX, y);
-                }*/
-                g.setColor(Color.BLACK);
+                    drawSpan(pixels, rowStart, startX, x, OCEAN_PIXEL);
+                }
                 
                 // borders
-                g.drawLine(startX, y, startX+1, y);
-                g.drawLine(x-1, y, x, y);
+                drawSpan(pixels, rowStart, startX, startX+1, BORDER_PIXEL);
+                drawSpan(pixels, rowStart, x-1, x, BORDER_PIXEL);
                 
                 if (x >= MAP_WIDTH) {
                     break;
@@ -200,22 +411,133 @@ public class IdTbl {
                 realOffset += 4;
             }
         }
-        
+    }
+    
+    /**
+     * Fills the pixels from <code>x1</code> to <code>x2</code>, both
+     * inclusive (just like <code>drawLine</code>), clipped to the map.
+     */
+    private static void drawSpan(final byte[] pixels, int rowStart, int x1, int x2, byte pixel) {
+        int start = Math.max(Math.min(x1, x2), 0);
+        int end = Math.min(Math.max(x1, x2), MAP_WIDTH - 1);
+        if (start <= end)
+            Arrays.fill(pixels, rowStart + start, rowStart + end + 1, pixel);
+    }
+    
+    /**
+     * Returns the RGB color that {@link #getImage()} fills the inside of the
+     * given province's spans with. The first and last pixels of every span
+     * are {@link #getBorderRGB() borders}, and the first line of the map is
+     * all {@link #getBackgroundRGB() background}.
+     */
+    static int getFillRGB(ProvinceData data, int id) {
+        if (data.isPTI(id))
+            return PALETTE.getRGB(PTI_PIXEL & 0xff);
+        if (!data.isLand(id))
+            return PALETTE.getRGB(OCEAN_PIXEL & 0xff);
+        return PALETTE.getRGB(BACKGROUND_PIXEL & 0xff);
+    }
+    
+    static int getBorderRGB() {
+        return PALETTE.getRGB(BORDER_PIXEL & 0xff);
+    }
+    
+    static int getBackgroundRGB() {
+        return PALETTE.getRGB(BACKGROUND_PIXEL & 0xff);
+    }
+    
+    /**
+     * Finds the palette index that Java2D uses when drawing the given color
+     * onto a <code>TYPE_BYTE_INDEXED</code> image. This is not always the
+     * same as what <code>IndexColorModel.getDataElements</code> returns, so
+     * it is easiest to just draw a pixel and look.
+     */
+    private static byte paletteIndex(Color color) {
+        final BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_INDEXED);
+        final Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, 1, 1);
         g.dispose();
-        
-        return img;
+        return (byte) img.getRaster().getSample(0, 0, 0);
     }
     
 
+    /**
+     * Sets the pool that {@link #getImage()} uses to draw the map. Each line
+     * of id.tbl is independent, so the lines are split into bands and
+     * drawn in parallel. The default is the common pool.
+     * @param pool the pool to draw in, or <code>null</code> to draw
+     * everything on the calling thread
+     */
+    public void setRenderPool(ForkJoinPool pool) {
+        this.renderPool = pool;
+    }
+    
+    public ForkJoinPool getRenderPool() {
+        return renderPool;
+    }
+    
+    /**
+     * Convenience method to switch between drawing on the common pool and
+     * drawing on a single thread.
+     */
+    public void setParallelRendering(boolean parallel) {
+        setRenderPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
     public BufferedImage getImage() {
         if (image == null)
             image = draw();
         return image;
     }
     
+    /**
+     * Returns the backing array of {@link #getImage()}, one palette index
+     * per pixel, line by line.
+     */
+    byte[] getPixels() {
+        return ((DataBufferByte) getImage().getRaster().getDataBuffer()).getData();
+    }
+    
+    /**
+     * Uses the pixels remaining in <code>pixels</code> (as returned by
+     * {@link #getPixels()} in an earlier run) as the map image instead of
+     * drawing it.
+     */
+    void setPixels(ByteBuffer pixels) {
+        final BufferedImage img =
+                new BufferedImage(MAP_WIDTH, MAP_HEIGHT, BufferedImage.TYPE_BYTE_INDEXED);
+        pixels.duplicate().get(((DataBufferByte) img.getRaster().getDataBuffer()).getData());
+        image = img;
+    }
+    
 
     public ProvinceData getProvinceData() {
         return province;
     }
+    
+    /**
+     * Switches to new province data, such as after province.csv has been
+     * edited. The map image is not drawn again; use
+     * {@link #redrawRows(int, int)} for the lines that have changed.
+     */
+    void setProvinceData(ProvinceData data) {
+        province = data;
+    }
+    
+    /**
+     * Draws the lines from <code>startY</code> (inclusive) to
+     * <code>endY</code> (exclusive) of the map image again, using the
+     * current province data. Does nothing if the image has not been created.
+     */
+    void redrawRows(int startY, int endY) {
+        if (image == null)
+            return;
+        final byte[] pixels = getPixels();
+        startY = Math.max(startY, 1);   // the first line is never drawn
+        endY = Math.min(endY, MAP_HEIGHT);
+        if (startY < endY)
+            RowBands.run(renderPool, startY, endY, (bandStart, bandEnd) -> drawRows(pixels, bandStart, bandEnd, 0));
+    }
 
 }
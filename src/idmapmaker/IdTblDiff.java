@@ -0,0 +1,259 @@
+/*
+ * IdTblDiff.java
+ *
+ * Created on Oct 18, 2026, 4:20:37 AM
+ */
+
+package idmapmaker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The pixels that changed province between two versions of id.tbl.
+ * <p>
+ * Most edits to a map touch a few provinces, so most lines of the two
+ * files are the same byte for byte. Each line is first compared as a block
+ * of bytes, which costs about as much as reading it; only lines that differ
+ * are decoded, and their spans are walked together to find the runs of
+ * pixels whose ID is not the same in both. The lines are compared in bands
+ * in parallel.
+ * <p>
+ * For every province, the number of pixels it lost (that belong to another
+ * province in the new file) and gained (that belonged to another province
+ * in the old file) is counted. Optionally the changed pixels are also
+ * marked in a full-size overlay image, one bit per pixel.
+ */
+public final class IdTblDiff {
+    
+    private static final int MAX_PROVINCES = 1 << 15;
+    /**
+     * Lines per band. Each band has its own counts for every province, so
+     * the bands are kept larger than usual.
+     */
+    private static final int GRAIN = 256;
+    
+    private final int[] lost;
+    private final int[] gained;
+    private final int changedLines;
+    private final long changedPixels;
+    private final byte[] overlay;
+    
+    private IdTblDiff(int[] lost, int[] gained, int changedLines, long changedPixels, byte[] overlay) {
+        this.lost = lost;
+        this.gained = gained;
+        this.changedLines = changedLines;
+        this.changedPixels = changedPixels;
+        this.overlay = overlay;
+    }
+    
+    /**
+     * Compares two versions of id.tbl.
+     * @param withOverlay whether to mark the changed pixels for
+     * {@link #getOverlay()}
+     * @param pool the pool to compare in, or <code>null</code> to do
+     * everything on the calling thread
+     */
+    public static IdTblDiff compare(final IdTbl before, final IdTbl after, boolean withOverlay,
+            ForkJoinPool pool) {
+        final Counts all = new Counts();
+        final int stride = getOverlayStride();
+        final byte[] overlay = withOverlay ? new byte[stride * IdTbl.MAP_HEIGHT] : null;
+        
+        RowBands.run(pool, 0, IdTbl.MAP_HEIGHT, GRAIN, (startY, endY) -> {
+            final Counts band = new Counts();
+            final short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] otherStartX = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] otherIds = new short[IdTbl.MAP_WIDTH + 1];
+            
+            for (int y = startY; y < endY; y++) {
+                if (before.getLineBytes(y).equals(after.getLineBytes(y)))
+                    continue;
+                
+                final int n = before.getSpanCount(y);
+                final int end = Math.min(before.copySpans(y, startX, ids, 0), IdTbl.MAP_WIDTH);
+                final int otherN = after.getSpanCount(y);
+                final int otherEnd = Math.min(after.copySpans(y, otherStartX, otherIds, 0), IdTbl.MAP_WIDTH);
+                
+                // walk both lines' spans, one overlap at a time; pixels
+                // outside the spans have no province
+                final long changedBefore = band.changedPixels;
+                int x = 0;
+                int i = 0;
+                int j = 0;
+                while (x < IdTbl.MAP_WIDTH) {
+                    final int id;
+                    final int nextX;
+                    if (x < startX[0] || x >= end) {
+                        id = -1;
+                        nextX = (x < startX[0]) ? startX[0] : IdTbl.MAP_WIDTH;
+                    } else {
+                        while (i + 1 < n && startX[i + 1] <= x)
+                            i++;
+                        id = ids[i];
+                        nextX = (i + 1 < n) ? startX[i + 1] : end;
+                    }
+                    
+                    final int otherId;
+                    final int otherNextX;
+                    if (x < otherStartX[0] || x >= otherEnd) {
+                        otherId = -1;
+                        otherNextX = (x < otherStartX[0]) ? otherStartX[0] : IdTbl.MAP_WIDTH;
+                    } else {
+                        while (j + 1 < otherN && otherStartX[j + 1] <= x)
+                            j++;
+                        otherId = otherIds[j];
+                        otherNextX = (j + 1 < otherN) ? otherStartX[j + 1] : otherEnd;
+                    }
+                    
+                    final int x2 = Math.min(Math.min(nextX, otherNextX), IdTbl.MAP_WIDTH);
+                    if (id != otherId) {
+                        band.add(id, otherId, x2 - x);
+                        if (overlay != null)
+                            mark(overlay, y * stride, x, x2);
+                    }
+                    x = x2;
+                }
+                if (band.changedPixels != changedBefore)
+                    band.changedLines++;
+            }
+            
+            synchronized (all) {
+                all.addAll(band);
+            }
+        });
+        
+        return new IdTblDiff(all.lost, all.gained, all.changedLines, all.changedPixels, overlay);
+    }
+    
+    private static int getOverlayStride() {
+        return (IdTbl.MAP_WIDTH + 7) / 8;
+    }
+    
+    /**
+     * Sets the bits for pixels <code>x1</code> to <code>x2 - 1</code> of a
+     * line, most significant bit first.
+     */
+    private static void mark(byte[] bits, int lineStart, int x1, int x2) {
+        for (int x = x1; x < x2; x++) {
+            bits[lineStart + (x >> 3)] |= 0x80 >> (x & 7);
+        }
+    }
+    
+    /**
+     * Returns the number of lines with at least one changed pixel.
+     */
+    public int getChangedLineCount() {
+        return changedLines;
+    }
+    
+    public long getChangedPixelCount() {
+        return changedPixels;
+    }
+    
+    /**
+     * Returns the number of pixels of the province in the old file that
+     * belong to another province (or none) in the new one.
+     */
+    public int getPixelsLost(int provId) {
+        return (provId < 0 || provId >= MAX_PROVINCES) ? 0 : lost[provId];
+    }
+    
+    /**
+     * Returns the number of pixels of the province in the new file that
+     * belonged to another province (or none) in the old one.
+     */
+    public int getPixelsGained(int provId) {
+        return (provId < 0 || provId >= MAX_PROVINCES) ? 0 : gained[provId];
+    }
+    
+    /**
+     * Returns the IDs of the provinces whose shape changed, in increasing
+     * order.
+     */
+    public int[] getChangedProvinces() {
+        int count = 0;
+        for (int p = 0; p < MAX_PROVINCES; p++) {
+            if (lost[p] != 0 || gained[p] != 0)
+                count++;
+        }
+        final int[] ret = new int[count];
+        int n = 0;
+        for (int p = 0; p < MAX_PROVINCES; p++) {
+            if (lost[p] != 0 || gained[p] != 0)
+                ret[n++] = p;
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns a full-size image with the changed pixels in red and the rest
+     * transparent, or <code>null</code> if the comparison was made without
+     * an overlay.
+     */
+    public BufferedImage getOverlay() {
+        if (overlay == null)
+            return null;
+        
+        final IndexColorModel colorModel = new IndexColorModel(1, 2,
+                new byte[] { 0, (byte) 0xff }, new byte[] { 0, 0 }, new byte[] { 0, 0 }, 0);
+        final WritableRaster raster = Raster.createPackedRaster(
+                new DataBufferByte(overlay, overlay.length), IdTbl.MAP_WIDTH, IdTbl.MAP_HEIGHT, 1, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+    
+    /**
+     * Writes the changed provinces to a semicolon-separated file, like
+     * province.csv, one line per province.
+     */
+    public void writeCsv(String filename, ProvinceData data) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write("Id;Name;Pixels Lost;Pixels Gained");
+            writer.newLine();
+            for (int p : getChangedProvinces()) {
+                final String name = data.getName(p);
+                writer.write(p + ";" + ((name == null) ? "" : name) + ";" + lost[p] + ";" + gained[p]);
+                writer.newLine();
+            }
+        }
+    }
+    
+    /**
+     * Totals for a band of lines.
+     */
+    private static final class Counts {
+        final int[] lost = new int[MAX_PROVINCES];
+        final int[] gained = new int[MAX_PROVINCES];
+        int changedLines;
+        long changedPixels;
+        
+        /**
+         * Counts <code>length</code> pixels that went from province
+         * <code>from</code> to province <code>to</code>.
+         */
+        void add(int from, int to, int length) {
+            if (from >= 0 && from < MAX_PROVINCES)
+                lost[from] += length;
+            if (to >= 0 && to < MAX_PROVINCES)
+                gained[to] += length;
+            changedPixels += length;
+        }
+        
+        void addAll(Counts other) {
+            for (int p = 0; p < MAX_PROVINCES; p++) {
+                lost[p] += other.lost[p];
+                gained[p] += other.gained[p];
+            }
+            changedLines += other.changedLines;
+            changedPixels += other.changedPixels;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * LabelLayer.java
+ *
+ * Created on Oct 17, 2026, 4:45:22 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Paints province labels (IDs, names, or both) centered on each province's
+ * boundbox, but only the ones that can actually be seen in the clip.
+ * If {@link ProvinceStats} are given, labels are centered on each
+ * province's label anchor instead, which is always inside the province.
+ * <p>
+ * The label anchors (the centers of the boundboxes) are put into a uniform
+ * grid once, so that a repaint only looks at the provinces in the grid
+ * cells under the clip instead of all of them. The label strings are built
+ * once, and their measured sizes and laid-out glyphs are cached for the
+ * last few font sizes, so panning around does not measure or lay out any
+ * text at all.
+ * <p>
+ * The labels are drawn in the same places and in the same order as if
+ * every label were drawn. When zoomed out, that leaves most labels on top
+ * of each other, so they can be decluttered: the labels are placed once
+ * per zoom level, biggest province first, and any label that would
+ * overlap one already placed is left out. The placement covers the whole
+ * map, not just the clip, so a label does not come and go as the map is
+ * scrolled.
+ */
+final class LabelLayer {
+    
+    /** Size of a grid cell, in map pixels. */
+    private static final int CELL_SIZE = 256;
+    /** Number of font sizes to keep measurements for. */
+    private static final int MAX_CACHED_FONTS = 8;
+    /** Extra room around each label for bold glyphs and antialiasing. */
+    private static final int SLACK = 2;
+    /** Size of a cell of the grid of placed labels, in screen pixels. */
+    private static final int PLACED_CELL_SIZE = 64;
+    
+    static final int MODE_IDS = 0;
+    static final int MODE_IDS_AND_NAMES = 1;
+    static final int MODE_NAMES = 2;
+    
+    private final ProvinceData data;
+    private final int count;
+    
+    private final int[] boxX;
+    private final int[] boxY;
+    private final int[] boxWidth;
+    private final int[] boxHeight;
+    
+    // provinces by decreasing size, the order labels are placed in
+    private final int[] placeOrder;
+    
+    // grid of label anchors, stored as a list of provinces per cell
+    private final int gridWidth;
+    private final int gridHeight;
+    private final int[] cellStart;
+    private final int[] cellProvs;
+    
+    private final String[][] strings = new String[3][];
+    private final Map<MetricsKey, Metrics> metrics =
+            new LinkedHashMap<MetricsKey, Metrics>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MetricsKey, Metrics> eldest) {
+                    return size() > MAX_CACHED_FONTS;
+                }
+            };
+    
+    // scratch space for queries
+    private final int[] seen;
+    private int queryStamp = 0;
+    private int[] found = new int[256];
+    
+    LabelLayer(IdTbl id, BoundboxTbl bounds) {
+        this(id, bounds, null);
+    }
+    
+    /**
+     * @param stats the statistics whose label anchors to use, or
+     * <code>null</code> to center labels on the boundboxes
+     */
+    LabelLayer(IdTbl id, BoundboxTbl bounds, ProvinceStats stats) {
+        this.data = id.getProvinceData();
+        this.count = bounds.getProvinceCount();
+        
+        boxX = new int[count];
+        boxY = new int[count];
+        boxWidth = new int[count];
+        boxHeight = new int[count];
+        
+        gridWidth = (IdTbl.MAP_WIDTH + CELL_SIZE - 1) / CELL_SIZE;
+        gridHeight = (IdTbl.MAP_HEIGHT + CELL_SIZE - 1) / CELL_SIZE;
+        final int[] provCell = new int[count];
+        cellStart = new int[gridWidth * gridHeight + 1];
+        // size in the high bits, and the ID reversed in the low ones so
+        // that equal sizes go by increasing ID
+        final long[] sizes = new long[Math.max(count - 1, 0)];
+        for (int i = 1; i < count; i++) {
+            final long size;
+            if (stats != null && stats.isOnMap(i)) {
+                // an empty box centers the label on the anchor
+                boxX[i] = stats.getAnchorX(i);
+                boxY[i] = stats.getAnchorY(i);
+                size = stats.getArea(i);
+            } else {
+                final Rectangle r = bounds.getBounds(i);
+                boxX[i] = r.x;
+                boxY[i] = r.y;
+                boxWidth[i] = r.width;
+                boxHeight[i] = r.height;
+                size = (long) Math.max(r.width, 0) * Math.max(r.height, 0);
+            }
+            sizes[i - 1] = size << 20 | (0xfffff - i);
+            
+            provCell[i] = cellOf(boxX[i] + boxWidth[i] / 2, boxY[i] + boxHeight[i] / 2);
+            cellStart[provCell[i] + 1]++;
+        }
+        for (int c = 0; c < gridWidth * gridHeight; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellProvs = new int[cellStart[gridWidth * gridHeight]];
+        final int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 1; i < count; i++) {
+            cellProvs[fill[provCell[i]]++] = i;
+        }
+        
+        seen = new int[count];
+        
+        Arrays.sort(sizes);
+        placeOrder = new int[sizes.length];
+        for (int k = 0; k < sizes.length; k++) {
+            placeOrder[k] = 0xfffff - (int) (sizes[sizes.length - 1 - k] & 0xfffff);
+        }
+    }
+    
+    private int cellOf(int x, int y) {
+        // Anchors off the map (e.g. from "negative" boundboxes) are clamped
+        // to the nearest cell, so every label is somewhere in the grid.
+        final int cx = Math.max(0, Math.min(gridWidth - 1, Math.floorDiv(x, CELL_SIZE)));
+        final int cy = Math.max(0, Math.min(gridHeight - 1, Math.floorDiv(y, CELL_SIZE)));
+        return cy * gridWidth + cx;
+    }
+    
+    /**
+     * Paints the labels for the given mode that intersect <code>clip</code>
+     * (in scaled coordinates), using the font and color already set on
+     * <code>g</code>.
+     * @param seaLabels whether to label sea provinces too
+     * @param declutter whether to leave out labels that would overlap
+     * those of bigger provinces
+     */
+    void paint(Graphics2D g, Rectangle clip, double scaleFactor, int mode, boolean seaLabels,
+            boolean declutter) {
+        final Font font = g.getFont();
+        final FontRenderContext frc = g.getFontRenderContext();
+        final String[] labels = getStrings(mode);
+        final Metrics m = getMetrics(font, frc, mode, labels);
+        final BitSet placed = declutter ? getPlaced(m, scaleFactor, mode, seaLabels) : null;
+        
+        final int n = (clip == null) ? allLabels() : query(clip, scaleFactor, m);
+        
+        for (int k = 0; k < n; k++) {
+            final int i = found[k];
+            if (!seaLabels && !data.isLand(i))
+                continue;
+            if (placed != null && !placed.get(i))
+                continue;
+            
+            final float x = labelX(i, scaleFactor, m);
+            final float y = labelY(i, scaleFactor, mode, m);
+            
+            if (clip != null
+                    && (x > clip.x + clip.width + SLACK || x + m.width[i] < clip.x - SLACK
+                    || y - m.height[i] > clip.y + clip.height + SLACK || y + m.height[i] < clip.y - SLACK))
+                continue;
+            
+            g.drawGlyphVector(m.getGlyphs(i, font, frc, labels), x, y);
+        }
+    }
+    
+    private float labelX(int i, double scaleFactor, Metrics m) {
+        return (float) (boxX[i]*scaleFactor + (boxWidth[i]*scaleFactor - m.width[i])/2.0);
+    }
+    
+    /**
+     * Returns the baseline of a label.
+     */
+    private float labelY(int i, double scaleFactor, int mode, Metrics m) {
+        if (mode == MODE_NAMES)
+            return (float) (boxY[i]*scaleFactor + (boxHeight[i]*scaleFactor - m.height[i])/2.0);
+        else
+            return (float) (boxY[i]*scaleFactor + (boxHeight[i]*scaleFactor + m.height[i])/2.0);
+    }
+    
+    /**
+     * Returns the provinces whose labels fit at the given scale, placing
+     * them first if they have not been yet.
+     */
+    private BitSet getPlaced(Metrics m, double scaleFactor, int mode, boolean seaLabels) {
+        if (m.placed != null && m.placedScale == scaleFactor && m.placedSea == seaLabels)
+            return m.placed;
+        
+        final BitSet placed = new BitSet(count);
+        final PlacedGrid grid = new PlacedGrid(IdTbl.MAP_WIDTH * scaleFactor, IdTbl.MAP_HEIGHT * scaleFactor);
+        for (int i : placeOrder) {
+            if (!seaLabels && !data.isLand(i))
+                continue;
+            
+            // the box is only roughly where the glyphs are, but since it is
+            // off by the same amount for every label, overlaps are the same
+            final float x = labelX(i, scaleFactor, m) - SLACK;
+            final float y = labelY(i, scaleFactor, mode, m) - (float) m.height[i] - SLACK;
+            final float w = (float) m.width[i] + 2 * SLACK;
+            final float h = (float) m.height[i] + 2 * SLACK;
+            if (grid.add(x, y, w, h))
+                placed.set(i);
+        }
+        
+        m.placed = placed;
+        m.placedScale = scaleFactor;
+        m.placedSea = seaLabels;
+        return placed;
+    }
+    
+    private int allLabels() {
+        ensureFound(count);
+        int n = 0;
+        for (int i = 1; i < count; i++) {
+            found[n++] = i;
+        }
+        return n;
+    }
+    
+    /**
+     * Finds the provinces whose labels could intersect the clip and puts
+     * them into <code>found</code> in ascending order.
+     * @return the number of provinces found
+     */
+    private int query(Rectangle clip, double scaleFactor, Metrics m) {
+        // The anchor of a label that touches the clip can be at most half
+        // the widest label (and one and a half line heights) outside it.
+        final double marginX = (m.maxWidth / 2.0 + SLACK) / scaleFactor;
+        final double marginY = (1.5 * m.maxHeight + SLACK) / scaleFactor;
+        final int x1 = (int) Math.floor(clip.x / scaleFactor - marginX);
+        final int y1 = (int) Math.floor(clip.y / scaleFactor - marginY);
+        final int x2 = (int) Math.ceil((clip.x + clip.width) / scaleFactor + marginX);
+        final int y2 = (int) Math.ceil((clip.y + clip.height) / scaleFactor + marginY);
+        
+        final int cx1 = Math.max(0, Math.min(gridWidth - 1, Math.floorDiv(x1, CELL_SIZE)));
+        final int cy1 = Math.max(0, Math.min(gridHeight - 1, Math.floorDiv(y1, CELL_SIZE)));
+        final int cx2 = Math.max(0, Math.min(gridWidth - 1, Math.floorDiv(x2, CELL_SIZE)));
+        final int cy2 = Math.max(0, Math.min(gridHeight - 1, Math.floorDiv(y2, CELL_SIZE)));
+        
+        if (++queryStamp == 0) {
+            Arrays.fill(seen, 0);
+            queryStamp = 1;
+        }
+        
+        int n = 0;
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                final int c = cy * gridWidth + cx;
+                ensureFound(n + cellStart[c + 1] - cellStart[c]);
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    final int i = cellProvs[k];
+                    if (seen[i] != queryStamp) {
+                        seen[i] = queryStamp;
+                        found[n++] = i;
+                    }
+                }
+            }
+        }
+        // keep the same painting order as drawing every label
+        Arrays.sort(found, 0, n);
+        return n;
+    }
+    
+    private void ensureFound(int size) {
+        if (found.length < size)
+            found = Arrays.copyOf(found, Math.max(size, found.length * 2));
+    }
+    
+    private String[] getStrings(int mode) {
+        String[] ret = strings[mode];
+        if (ret == null) {
+            ret = new String[count];
+            for (int i = 1; i < count; i++) {
+                switch (mode) {
+                    case MODE_IDS:
+                        ret[i] = Integer.toString(i);
+                        break;
+                    case MODE_IDS_AND_NAMES:
+                        ret[i] = i + " (" + data.getName(i) + ")";
+                        break;
+                    default:
+                        ret[i] = data.getName(i);
+                        break;
+                }
+            }
+            strings[mode] = ret;
+        }
+        return ret;
+    }
+    
+    private Metrics getMetrics(Font font, FontRenderContext frc, int mode, String[] labels) {
+        final MetricsKey key = new MetricsKey(font, frc, mode);
+        Metrics m = metrics.get(key);
+        if (m == null) {
+            m = new Metrics(font, frc, labels);
+            metrics.put(key, m);
+        }
+        return m;
+    }
+    
+    /**
+     * Throws away the cached label strings and measurements, e.g. after
+     * the province names have changed.
+     */
+    void invalidate() {
+        Arrays.fill(strings, null);
+        metrics.clear();
+    }
+    
+    /**
+     * Measured sizes of all labels of one mode in one font, and their
+     * glyphs once they have been drawn.
+     */
+    private static final class Metrics {
+        final double[] width;
+        final double[] height;
+        final double maxWidth;
+        final double maxHeight;
+        final GlyphVector[] glyphs;
+        
+        // the labels that fit without overlapping, at placedScale
+        BitSet placed;
+        double placedScale;
+        boolean placedSea;
+        
+        Metrics(Font font, FontRenderContext frc, String[] labels) {
+            width = new double[labels.length];
+            height = new double[labels.length];
+            glyphs = new GlyphVector[labels.length];
+            double maxW = 0;
+            double maxH = 0;
+            for (int i = 1; i < labels.length; i++) {
+                final Rectangle2D r = font.getStringBounds(labels[i], frc);
+                width[i] = r.getWidth();
+                height[i] = r.getHeight();
+                maxW = Math.max(maxW, width[i]);
+                maxH = Math.max(maxH, height[i]);
+            }
+            maxWidth = maxW;
+            maxHeight = maxH;
+        }
+        
+        GlyphVector getGlyphs(int i, Font font, FontRenderContext frc, String[] labels) {
+            GlyphVector ret = glyphs[i];
+            if (ret == null) {
+                ret = font.createGlyphVector(frc, labels[i]);
+                glyphs[i] = ret;
+            }
+            return ret;
+        }
+    }
+    
+    /**
+     * The boxes of the labels placed so far, in a uniform grid of screen
+     * pixels. Each cell keeps a linked list of the boxes that touch it.
+     */
+    private static final class PlacedGrid {
+        private final int gridWidth;
+        private final int gridHeight;
+        private final int[] cellHead;
+        
+        private float[] boxes = new float[4 * 256];
+        // the entries of the cell lists: the box, and the next entry
+        private int[] entryBox = new int[256];
+        private int[] entryNext = new int[256];
+        private int boxCount = 0;
+        private int entryCount = 0;
+        
+        PlacedGrid(double width, double height) {
+            gridWidth = (int) Math.ceil(width / PLACED_CELL_SIZE) + 1;
+            gridHeight = (int) Math.ceil(height / PLACED_CELL_SIZE) + 1;
+            cellHead = new int[gridWidth * gridHeight];
+            Arrays.fill(cellHead, -1);
+        }
+        
+        private int cellX(float x) {
+            return Math.max(0, Math.min(gridWidth - 1, (int) Math.floor(x / PLACED_CELL_SIZE)));
+        }
+        
+        private int cellY(float y) {
+            return Math.max(0, Math.min(gridHeight - 1, (int) Math.floor(y / PLACED_CELL_SIZE)));
+        }
+        
+        /**
+         * Adds the box if it does not overlap any box added before.
+         * @return whether the box was added
+         */
+        boolean add(float x, float y, float w, float h) {
+            final int cx1 = cellX(x);
+            final int cy1 = cellY(y);
+            final int cx2 = cellX(x + w);
+            final int cy2 = cellY(y + h);
+            for (int cy = cy1; cy <= cy2; cy++) {
+                for (int cx = cx1; cx <= cx2; cx++) {
+                    for (int e = cellHead[cy * gridWidth + cx]; e >= 0; e = entryNext[e]) {
+                        final int b = 4 * entryBox[e];
+                        if (x < boxes[b] + boxes[b + 2] && boxes[b] < x + w
+                                && y < boxes[b + 1] + boxes[b + 3] && boxes[b + 1] < y + h)
+                            return false;
+                    }
+                }
+            }
+            
+            if (4 * boxCount + 4 > boxes.length)
+                boxes = Arrays.copyOf(boxes, boxes.length * 2);
+            final int b = boxCount++;
+            boxes[4 * b] = x;
+            boxes[4 * b + 1] = y;
+            boxes[4 * b + 2] = w;
+            boxes[4 * b + 3] = h;
+            for (int cy = cy1; cy <= cy2; cy++) {
+                for (int cx = cx1; cx <= cx2; cx++) {
+                    if (entryCount == entryBox.length) {
+                        entryBox = Arrays.copyOf(entryBox, entryCount * 2);
+                        entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                    }
+                    final int c = cy * gridWidth + cx;
+                    entryBox[entryCount] = b;
+                    entryNext[entryCount] = cellHead[c];
+                    cellHead[c] = entryCount++;
+                }
+            }
+            return true;
+        }
+    }
+    
+    private static final class MetricsKey {
+        private final Font font;
+        private final FontRenderContext frc;
+        private final int mode;
+        
+        MetricsKey(Font font, FontRenderContext frc, int mode) {
+            this.font = font;
+            this.frc = frc;
+            this.mode = mode;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MetricsKey))
+                return false;
+            final MetricsKey other = (MetricsKey) obj;
+            return mode == other.mode && font.equals(other.font) && frc.equals(other.frc);
+        }
+        
+        @Override
+        public int hashCode() {
+            return (font.hashCode() * 31 + frc.hashCode()) * 31 + mode;
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package idmapmaker;
 
+import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 
 /**
@@ -11,12 +19,52 @@ public class Main {
 
     private static String idFilename = null;
     private static String provFilename = null;
+    private static boolean memoryMapped = true;
+    private static int renderThreads = 0; // 0 means use the common pool
+    private static boolean spanIndex = false;
+    private static boolean raster = false;
+    private static boolean useCache = true;
+    private static boolean watch = false;
+    private static boolean measureHover = false;
+    private static long tileCacheBytes = MapTiles.DEFAULT_MAX_BYTES;
+    private static boolean tileStats = false;
+    
+    private static String outFilename = null;
+    private static Labels labels = Labels.NONE;
+    private static boolean paintSeaIds = false;
+    private static double scaleFactor = 1.0;
+    private static double simplify = 0;
+    private static String statsFilename = null;
+    private static String adjacencyFilename = null;
+    private static boolean anchorLabels = false;
+    private static String tilesDirectory = null;
+    private static String diffFilename = null;
+    private static String diffCsvFilename = null;
+    private static String diffImageFilename = null;
+    
+    private static long stageStart;
+    
+    private enum Labels {
+        IDS, NAMES, NONE;
+        
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
         handleArgs(args);
+        if (outFilename != null || statsFilename != null || adjacencyFilename != null || tilesDirectory != null
+                || diffFilename != null) {
+            System.setProperty("java.awt.headless", "true");
+            if (!runBatch())
+                System.exit(1);
+            return;
+        }
         JFileChooser chooser = null;
         if (provFilename == null || !(new File(provFilename).exists())) {
             chooser = new JFileChooser();
@@ -39,20 +87,277 @@ public class Main {
                 return;
             }
         }
-        System.out.println("Reading provinces...");
-        ProvinceData data = new ProvinceData(provFilename);
-        System.out.println("done");
+        // The window opens right away and fills in as the map loads.
+        final MainFrame frame = new MainFrame();
+        frame.setVisible(true);
+        frame.setWatchProvinces(watch);
+        frame.setMeasureHover(measureHover);
+        frame.setTileCacheBudget(tileCacheBytes);
+        frame.setReportTileCache(tileStats);
+        frame.load(createLoader(true));
+    }
+    
+    /**
+     * Sets up a loader for the map files with the options from the command
+     * line. Its progress is printed to the console.
+     * @param drawImage whether the whole map image is needed
+     */
+    private static MapLoader createLoader(boolean drawImage) {
+        final MapLoader loader = new MapLoader(idFilename, provFilename);
+        loader.setMemoryMapped(memoryMapped);
+        if (renderThreads == 1)
+            loader.setRenderPool(null);
+        else if (renderThreads > 1)
+            loader.setRenderPool(new ForkJoinPool(renderThreads));
+        loader.setUseCache(useCache);
+        loader.setDrawImage(drawImage);
+        loader.setBuildIndex(spanIndex);
+        loader.setBuildRaster(raster);
+        if (raster)
+            System.out.println("The ID raster will take " + IdRaster.SIZE_IN_BYTES / 1000000
+                    + " MB of direct memory (maximum " + getMaxDirectMemory() / 1000000 + " MB).");
+        loader.setComputeStats(anchorLabels || statsFilename != null);
+        loader.addProgressListener(new ConsoleProgress());
+        return loader;
+    }
+    
+    /**
+     * Returns the most direct memory the JVM will allocate, which is the
+     * heap size unless <code>-XX:MaxDirectMemorySize</code> says otherwise.
+     */
+    private static long getMaxDirectMemory() {
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-XX:MaxDirectMemorySize=")) {
+                final String size = arg.substring(arg.indexOf('=') + 1).toLowerCase();
+                final char unit = size.charAt(size.length() - 1);
+                final int shift = (unit == 'k') ? 10 : (unit == 'm') ? 20 : (unit == 'g') ? 30 : 0;
+                return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+            }
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+    
+    /**
+     * Renders the map to {@link #outFilename}, writes the province
+     * statistics to {@link #statsFilename} and the borders between provinces
+     * to {@link #adjacencyFilename} and map tiles to
+     * {@link #tilesDirectory}, and compares id.tbl with
+     * {@link #diffFilename}, whichever were given, without showing any
+     * windows.
+     * @return whether everything was written
+     */
+    private static boolean runBatch() {
+        if (provFilename == null || idFilename == null) {
+            System.err.println("-out, -stats, -adjacency, -tiles and -diff need both -id and -prov.");
+            return false;
+        }
+        if (!(scaleFactor > 0)) {
+            System.err.println("The scale must be greater than 0.");
+            return false;
+        }
+        final boolean vector = outFilename != null && BorderExport.isVectorFile(outFilename);
+        
+        final long start = System.nanoTime();
+        // outlines, statistics and borders are worked out from id.tbl, a
+        // full-size export draws the map a strip at a time and a smaller one
+        // is drawn from the spans, so only enlarging needs the whole image
+        final MapLoader loader = createLoader(outFilename != null && !vector && scaleFactor > 1.0);
+        final IdTbl id;
+        final BoundboxTbl bounds;
+        final ProvinceStats stats;
+        try {
+            id = loader.start().join();
+            bounds = loader.getBoundbox().join();
+            stats = loader.getStats().join();
+        } catch (CompletionException ex) {
+            System.err.println("Error reading map files: " + MapLoader.getCause(ex).getMessage());
+            return false;
+        }
+        
+        if (statsFilename != null) {
+            startStage("Writing " + new File(statsFilename).getAbsolutePath() + "...");
+            try {
+                stats.writeCsv(statsFilename, id.getProvinceData());
+            } catch (IOException ex) {
+                System.err.println("Error saving statistics: " + ex.getMessage());
+                return false;
+            }
+            endStage();
+        }
+        
+        if (adjacencyFilename != null) {
+            startStage("Finding borders between provinces...");
+            final ProvinceGraph graph = id.getProvinceGraph();
+            endStage();
+            System.out.println(graph.getBorderCount() + " borders");
+            
+            startStage("Writing " + new File(adjacencyFilename).getAbsolutePath() + "...");
+            try {
+                graph.writeCsv(adjacencyFilename, id.getProvinceData());
+            } catch (IOException ex) {
+                System.err.println("Error saving borders: " + ex.getMessage());
+                return false;
+            }
+            endStage();
+        }
+        
+        if (diffFilename != null && !writeDiff(id))
+            return false;
+        
+        if (tilesDirectory != null) {
+            final File directory = new File(tilesDirectory);
+            startStage("Writing zoom levels 0 to " + TileExport.getMaxZoom() + " into "
+                    + directory.getAbsolutePath() + "...");
+            final TileExport export = new TileExport(id, bounds, anchorLabels ? stats : null,
+                    labels == Labels.IDS, labels == Labels.NAMES, paintSeaIds);
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs())
+                    throw new IOException("Couldn't create " + directory);
+                export.write(directory, id.getRenderPool());
+            } catch (IOException ex) {
+                System.err.println("Error saving tiles: " + ex.getMessage());
+                return false;
+            }
+            endStage();
+            System.out.println(export.getWrittenCount() + " tiles written, "
+                    + export.getUnchangedCount() + " unchanged");
+        }
         
-        System.out.println("Reading map files...");
-        IdTbl id = new IdTbl(idFilename, data);
-        BoundboxTbl bounds = new BoundboxTbl(new File(idFilename).getParent() + "/boundbox.tbl");
-        System.out.println("done");
+        if (outFilename == null) {
+            System.out.println("Total: " + (System.nanoTime() - start) / 1000000 + " ms");
+            return true;
+        }
+        if (vector)
+            return writeBorders(id, start);
+        
+        final File outputFile = new File(outFilename);
+        final String extension = outputFile.getName().substring(outputFile.getName().lastIndexOf('.') + 1);
+        final ProvinceStats anchors = anchorLabels ? stats : null;
+        final RenderedImage img;
+        if (scaleFactor == 1.0) {
+            img = IDMapPanel.createStreamingImage(id, bounds, anchors,
+                    labels == Labels.IDS, labels == Labels.NAMES, paintSeaIds);
+        } else {
+            startStage("Painting " + labels + " labels at scale " + scaleFactor + "...");
+            img = IDMapPanel.createImage(id, bounds, anchors, scaleFactor,
+                    labels == Labels.IDS, labels == Labels.NAMES, paintSeaIds);
+            endStage();
+        }
         
-        System.out.println("Creating map image...");
-        id.getImage();  // it's cached after the first call
-        System.out.println("done");
+        startStage("Writing " + outputFile.getAbsolutePath() + "...");
+        try {
+            if (!ImageIO.write(img, extension, outputFile)) {
+                System.err.println("Couldn't save the image file. Please try a different image format.");
+                return false;
+            }
+        } catch (IOException ex) {
+            System.err.println("Error saving image: " + ex.getMessage());
+            return false;
+        }
+        endStage();
+        
+        System.out.println("Total: " + (System.nanoTime() - start) / 1000000 + " ms");
+        return true;
+    }
+    
+    /**
+     * Compares {@link #diffFilename} with the new id.tbl and prints or
+     * writes the provinces that changed.
+     */
+    private static boolean writeDiff(IdTbl id) {
+        startStage("Comparing " + new File(diffFilename).getAbsolutePath() + " with "
+                + new File(idFilename).getAbsolutePath() + "...");
+        final IdTblDiff diff;
+        try {
+            final IdTbl before = new IdTbl(diffFilename, id.getProvinceData(), memoryMapped);
+            diff = IdTblDiff.compare(before, id, diffImageFilename != null, id.getRenderPool());
+        } catch (IOException ex) {
+            System.err.println("Error reading " + diffFilename + ": " + ex.getMessage());
+            return false;
+        }
+        endStage();
         
-        new MainFrame(id, bounds).setVisible(true);
+        final int[] changed = diff.getChangedProvinces();
+        System.out.println(diff.getChangedPixelCount() + " pixels changed in " + diff.getChangedLineCount()
+                + " lines, in " + changed.length + " provinces");
+        try {
+            if (diffCsvFilename != null) {
+                startStage("Writing " + new File(diffCsvFilename).getAbsolutePath() + "...");
+                diff.writeCsv(diffCsvFilename, id.getProvinceData());
+                endStage();
+            } else {
+                final ProvinceData data = id.getProvinceData();
+                for (int p : changed) {
+                    System.out.println("    " + p + " " + data.getName(p) + ": -" + diff.getPixelsLost(p)
+                            + " +" + diff.getPixelsGained(p));
+                }
+            }
+            if (diffImageFilename != null) {
+                startStage("Writing " + new File(diffImageFilename).getAbsolutePath() + "...");
+                if (!ImageIO.write(diff.getOverlay(), "png", new File(diffImageFilename))) {
+                    System.err.println("Couldn't save the overlay image.");
+                    return false;
+                }
+                endStage();
+            }
+        } catch (IOException ex) {
+            System.err.println("Error saving the differences: " + ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes the province outlines to {@link #outFilename} as SVG or GeoJSON.
+     */
+    private static boolean writeBorders(IdTbl id, long start) {
+        startStage("Tracing borders...");
+        final BorderTracer tracer = new BorderTracer(id);
+        tracer.setTolerance(simplify);
+        final List<BorderTracer.Outline> outlines = tracer.trace();
+        endStage();
+        
+        startStage("Writing " + new File(outFilename).getAbsolutePath() + "...");
+        try {
+            BorderExport.write(outFilename, outlines, id.getProvinceData());
+        } catch (IOException ex) {
+            System.err.println("Error saving borders: " + ex.getMessage());
+            return false;
+        }
+        endStage();
+        
+        System.out.println("Total: " + (System.nanoTime() - start) / 1000000 + " ms");
+        return true;
+    }
+    
+    private static void startStage(String message) {
+        System.out.println(message);
+        stageStart = System.nanoTime();
+    }
+    
+    private static void endStage() {
+        System.out.println("done (" + (System.nanoTime() - stageStart) / 1000000 + " ms)");
+    }
+    
+    /**
+     * Prints the loader's progress. Stages can run at the same time, so
+     * each line says which stage it is about.
+     */
+    private static class ConsoleProgress implements MapLoader.ProgressListener {
+        @Override
+        public void stageStarted(MapLoader.Stage stage) {
+            System.out.println(stage + "...");
+        }
+        
+        @Override
+        public void stageFinished(MapLoader.Stage stage, long millis) {
+            System.out.println(stage + ": done (" + millis + " ms)");
+        }
+        
+        @Override
+        public void stageFailed(MapLoader.Stage stage, Throwable cause) {
+            System.err.println(stage + ": failed (" + cause.getMessage() + ")");
+        }
     }
 
     private static void handleArgs(final String[] args) {
@@ -64,6 +369,54 @@ public class Main {
                 idFilename = stripQuotes(args[++i]);
             } else if (arg.equals("-prov")) {
                 provFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-nomap")) {
+                memoryMapped = false;
+            } else if (arg.equals("-out")) {
+                outFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-labels")) {
+                final String value = args[++i];
+                try {
+                    labels = Labels.valueOf(value.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Not a valid option: " + arg + " " + value);
+                    printHelp();
+                }
+            } else if (arg.equals("-sea-ids")) {
+                paintSeaIds = true;
+            } else if (arg.equals("-scale")) {
+                scaleFactor = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-simplify")) {
+                simplify = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-stats")) {
+                statsFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-adjacency")) {
+                adjacencyFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-tiles")) {
+                tilesDirectory = stripQuotes(args[++i]);
+            } else if (arg.equals("-diff")) {
+                diffFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-diffcsv")) {
+                diffCsvFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-diffimage")) {
+                diffImageFilename = stripQuotes(args[++i]);
+            } else if (arg.equals("-anchors")) {
+                anchorLabels = true;
+            } else if (arg.equals("-index")) {
+                spanIndex = true;
+            } else if (arg.equals("-raster")) {
+                raster = true;
+            } else if (arg.equals("-watch")) {
+                watch = true;
+            } else if (arg.equals("-hoverstats")) {
+                measureHover = true;
+            } else if (arg.equals("-tilecache")) {
+                tileCacheBytes = Long.parseLong(args[++i]) << 20;
+            } else if (arg.equals("-tilestats")) {
+                tileStats = true;
+            } else if (arg.equals("-nocache")) {
+                useCache = false;
+            } else if (arg.equals("-threads")) {
+                renderThreads = Integer.parseInt(args[++i]);
             } else {
                 System.err.println("Not a valid option: " + arg);
                 printHelp();
@@ -93,15 +446,84 @@ public class Main {
         System.out.println("        The name of the id.tbl file to be read.");
         System.out.println("    -prov <filename>");
         System.out.println("        The name of the province.csv file to use.");
+        System.out.println("    -nomap");
+        System.out.println("        Read id.tbl and boundbox.tbl into memory instead of memory-mapping them.");
+        System.out.println("    -out <filename>");
+        System.out.println("        Save the map image to the given file and exit without showing any");
+        System.out.println("        windows. The format is taken from the file extension (e.g. .png).");
+        System.out.println("        With .svg, .geojson or .json, save the province outlines instead.");
+        System.out.println("    -labels ids|names|none");
+        System.out.println("        With -out, the labels to paint on each province. The default is none.");
+        System.out.println("    -sea-ids");
+        System.out.println("        With -out and -labels ids, also label sea provinces.");
+        System.out.println("    -scale <factor>");
+        System.out.println("        With -out, the size of the image relative to the full map. The default is 1.");
+        System.out.println("    -simplify <pixels>");
+        System.out.println("        With -out and a vector format, how far the simplified outlines may stray");
+        System.out.println("        from the real borders. The default is 0 (no simplification).");
+        System.out.println("    -stats <filename>");
+        System.out.println("        Save the area, centroid, extent and label anchor of each province to the");
+        System.out.println("        given semicolon-separated file and exit without showing any windows.");
+        System.out.println("        Can be combined with -out.");
+        System.out.println("    -adjacency <filename>");
+        System.out.println("        Save each pair of bordering provinces and the length of their border");
+        System.out.println("        to the given semicolon-separated file and exit without showing any");
+        System.out.println("        windows. Can be combined with -out and -stats.");
+        System.out.println("    -tiles <directory>");
+        System.out.println("        Save the map as PNG tiles for web map viewers, in z/x/y.png files under the");
+        System.out.println("        given directory, and exit without showing any windows. Takes -labels,");
+        System.out.println("        -sea-ids and -anchors like -out. Tiles that have not changed since the");
+        System.out.println("        last export into the same directory are not written again.");
+        System.out.println("    -diff <filename>");
+        System.out.println("        Compare the given older id.tbl with the one from -id, print how many");
+        System.out.println("        pixels each province lost and gained, and exit without showing any");
+        System.out.println("        windows.");
+        System.out.println("    -diffcsv <filename>");
+        System.out.println("        With -diff, save the changed provinces to the given semicolon-separated");
+        System.out.println("        file instead of printing them.");
+        System.out.println("    -diffimage <filename>");
+        System.out.println("        With -diff, also save a full-size PNG with the changed pixels in red.");
+        System.out.println("    -anchors");
+        System.out.println("        Center labels on a point inside each province instead of on its boundbox.");
+        System.out.println("    -index");
+        System.out.println("        Decode id.tbl into an index for faster province lookups.");
+        System.out.println("    -raster");
+        System.out.println("        Decode id.tbl into one ID per pixel for the fastest province lookups.");
+        System.out.println("        This takes " + IdRaster.SIZE_IN_BYTES / 1000000 + " MB of direct memory; raise the limit with");
+        System.out.println("        -XX:MaxDirectMemorySize if needed.");
+        System.out.println("    -watch");
+        System.out.println("        Redraw the parts of the map that change when the province file is saved.");
+        System.out.println("    -hoverstats");
+        System.out.println("        Time the province lookups under the mouse and count the memory they");
+        System.out.println("        allocate, and print the results when the window is closed.");
+        System.out.println("    -tilecache <megabytes>");
+        System.out.println("        How much memory to keep rendered map tiles in. Tiles beyond that are kept");
+        System.out.println("        until memory runs low. The default is " + (MapTiles.DEFAULT_MAX_BYTES >> 20) + ".");
+        System.out.println("    -tilestats");
+        System.out.println("        Print how often tiles were found in the cache when the window is closed.");
+        System.out.println("    -nocache");
+        System.out.println("        Always draw the map instead of loading it from the cache in");
+        System.out.println("        ~/.idmapmaker/cache, and don't save it there either.");
+        System.out.println("    -threads <count>");
+        System.out.println("        The number of threads to draw the map with. Use 1 to draw on a single");
+        System.out.println("        thread. The default is to use all available processors.");
         System.out.println("    -h | --help");
         System.out.println("        Print this help.");
         System.out.println();
-        System.out.println("Note that if either -id or -prov is not present, a file chooser will be shown.");
+        System.out.println("Note that if either -id or -prov is not present, a file chooser will be shown");
+        System.out.println("(unless -out, -stats, -adjacency, -tiles or -diff is given, in which case both");
+        System.out.println("are required).");
         System.out.println();
         System.out.println("Note also that arguments can appear in any order.");
         System.out.println();
-        System.out.println("Example:");
+        System.out.println("Examples:");
         System.out.println("java -jar IDMapMaker.jar -id \"D:\\games\\mynewmapmod\\myid.tbl\" -prov \"D:\\games\\mynewmapmod\\newprovinces.csv\"");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -out idmap.png -labels ids -scale 0.5");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -out borders.svg -simplify 1.5");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -stats provinces-stats.csv");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -adjacency adjacency.csv");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -tiles tiles -labels ids");
+        System.out.println("java -jar IDMapMaker.jar -id map/id.tbl -prov db/province.csv -diff old/id.tbl -diffimage changes.png");
     }
     
     private Main() {
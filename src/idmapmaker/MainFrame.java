@@ -6,12 +6,17 @@
 
 package idmapmaker;
 
-import java.awt.image.BufferedImage;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -20,6 +25,13 @@ import javax.swing.filechooser.FileNameExtensionFilter;
  */
 public class MainFrame extends javax.swing.JFrame {
     
+    private boolean watchProvinces = false;
+    
+    /** The province shown in the status bar, or -2 if it shows something else. */
+    private int hoverId = -2;
+    private HoverStats hoverStats = null;
+    private boolean reportTiles = false;
+    
     /** Creates new form MainFrame */
     public MainFrame(IdTbl idTbl, BoundboxTbl bounds) {
         initComponents();
@@ -29,6 +41,133 @@ public class MainFrame extends javax.swing.JFrame {
         pack();
     }
     
+    /**
+     * Creates an empty frame, the same size as it will be with the map in
+     * it. Use {@link #load(MapLoader)} to fill it in.
+     */
+    public MainFrame() {
+        initComponents();
+        saveMenuItem.setEnabled(false);
+        mapPanel.setPreferredSize(new Dimension(
+                (int) Math.ceil(IdTbl.MAP_WIDTH * 0.1), (int) Math.ceil(IdTbl.MAP_HEIGHT * 0.1)));
+        pack();
+    }
+    
+    /**
+     * Starts the loader and shows the map as soon as its image is ready. The
+     * status bar shows what the loader is doing until then.
+     */
+    public void load(final MapLoader loader) {
+        loader.addProgressListener(new MapLoader.ProgressListener() {
+            @Override
+            public void stageStarted(MapLoader.Stage stage) {
+                showStatus(stage + "...");
+            }
+            
+            @Override
+            public void stageFinished(MapLoader.Stage stage, long millis) {
+                showStatus(stage + ": done (" + millis + " ms)");
+            }
+            
+            @Override
+            public void stageFailed(MapLoader.Stage stage, Throwable cause) {
+                showStatus(stage + ": failed");
+            }
+        });
+        loader.start();
+        
+        loader.getBoundbox().thenAccept(bounds -> SwingUtilities.invokeLater(() -> {
+            mapPanel.setBoundbox(bounds);
+            mapPanel.repaint();
+        }));
+        loader.getImage().whenComplete((id, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                JOptionPane.showMessageDialog(this, MapLoader.getCause(ex).getMessage(),
+                        "Error reading map files", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            mapPanel.setId(id);
+            mapPanel.repaint();
+        }));
+        // the labels need the boundboxes, which may come after the image
+        loader.getImage().thenCombine(loader.getBoundbox(), (id, bounds) -> id)
+                .thenAccept(id -> SwingUtilities.invokeLater(() -> saveMenuItem.setEnabled(true)));
+        loader.getStats().thenAccept(stats -> {
+            if (stats != null)
+                SwingUtilities.invokeLater(() -> mapPanel.setProvinceStats(stats));
+        });
+        
+        if (watchProvinces) {
+            final ProvinceWatcher.Listener listener = new ProvinceWatcher.Listener() {
+                @Override
+                public void provincesReloaded(ProvinceData data, List<Rectangle> changed) {
+                    MainFrame.this.provincesReloaded(data, changed);
+                }
+                
+                @Override
+                public void reloadSkipped(String reason) {
+                    showStatus(reason + "; keeping the current map");
+                }
+            };
+            loader.getImage().thenCombine(loader.getBoundbox(),
+                    (id, bounds) -> new ProvinceWatcher(loader.getProvFilename(), id, bounds, listener))
+                    .thenAccept(watcher -> {
+                        try {
+                            watcher.start();
+                        } catch (IOException ex) {
+                            showStatus("Could not watch " + loader.getProvFilename() + ": " + ex.getMessage());
+                        }
+                    });
+        }
+    }
+    
+    /**
+     * Sets whether {@link #load(MapLoader)} should keep watching the
+     * province file and update the map when it changes.
+     */
+    public void setWatchProvinces(boolean watch) {
+        this.watchProvinces = watch;
+    }
+    
+    /**
+     * Sets whether to measure the mouse-over lookups and print how they did
+     * when the window is closed.
+     */
+    public void setMeasureHover(boolean measure) {
+        hoverStats = measure ? new HoverStats() : null;
+    }
+    
+    /**
+     * Sets how many bytes of rendered map tiles to keep in memory.
+     */
+    public void setTileCacheBudget(long bytes) {
+        mapPanel.setTileCacheBudget(bytes);
+    }
+    
+    /**
+     * Sets whether to print the tile cache's hit and miss counts when the
+     * window is closed.
+     */
+    public void setReportTileCache(boolean report) {
+        reportTiles = report;
+    }
+    
+    private void provincesReloaded(ProvinceData data, final List<Rectangle> changed) {
+        SwingUtilities.invokeLater(() -> {
+            mapPanel.mapChanged(changed);
+            hoverId = -2;   // the name may have changed
+            statusLabel.setText("Reloaded provinces: " + changed.size()
+                    + (changed.size() == 1 ? " province" : " provinces") + " redrawn");
+        });
+    }
+    
+    private void showStatus(final String status) {
+        SwingUtilities.invokeLater(() -> {
+            hoverId = -2;
+            statusLabel.setText(status);
+        });
+    }
+    
     /** This method is called from within the constructor to
      * initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is
@@ -52,6 +191,7 @@ public class MainFrame extends javax.swing.JFrame {
         showIdsMenuItem = new javax.swing.JCheckBoxMenuItem();
         showSeaIdsMenuItem = new javax.swing.JCheckBoxMenuItem();
         showNamesMenuItem = new javax.swing.JCheckBoxMenuItem();
+        declutterLabelsMenuItem = new javax.swing.JCheckBoxMenuItem();
 
         FormListener formListener = new FormListener();
 
@@ -117,6 +257,11 @@ public class MainFrame extends javax.swing.JFrame {
         showNamesMenuItem.addActionListener(formListener);
         viewMenu.add(showNamesMenuItem);
 
+        declutterLabelsMenuItem.setSelected(true);
+        declutterLabelsMenuItem.setText("Hide overlapping labels");
+        declutterLabelsMenuItem.addActionListener(formListener);
+        viewMenu.add(declutterLabelsMenuItem);
+
         jMenuBar1.add(viewMenu);
 
         setJMenuBar(jMenuBar1);
@@ -150,6 +295,9 @@ public class MainFrame extends javax.swing.JFrame {
             else if (evt.getSource() == saveMenuItem) {
                 MainFrame.this.saveMenuItemActionPerformed(evt);
             }
+            else if (evt.getSource() == declutterLabelsMenuItem) {
+                MainFrame.this.declutterLabelsMenuItemActionPerformed(evt);
+            }
         }
 
         public void mouseDragged(java.awt.event.MouseEvent evt) {
@@ -191,8 +339,20 @@ public class MainFrame extends javax.swing.JFrame {
     }//GEN-LAST:event_exitMenuItemActionPerformed
 
     private void mapPanelMouseMoved(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_mapPanelMouseMoved
+        if (mapPanel.getId() == null)
+            return; // still loading
+        if (hoverStats != null)
+            hoverStats.moveStarted();
         int ID = mapPanel.getProvId(evt.getX(), evt.getY());
-        statusLabel.setText(mapPanel.getId().getProvinceData().getName(ID) + " (" + ID + ")");
+        // Most moves stay in the same province, and then there is nothing
+        // to do (and nothing is allocated).
+        final boolean changed = (ID != hoverId);
+        if (changed) {
+            hoverId = ID;
+            statusLabel.setText(mapPanel.getId().getProvinceData().getName(ID) + " (" + ID + ")");
+        }
+        if (hoverStats != null)
+            hoverStats.moveFinished(changed);
     }//GEN-LAST:event_mapPanelMouseMoved
 
     private void zoomOutMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_zoomOutMenuItemActionPerformed
@@ -227,6 +387,11 @@ public class MainFrame extends javax.swing.JFrame {
         mapPanel.repaint();
     }//GEN-LAST:event_showSeaIdsMenuItemActionPerformed
 
+    private void declutterLabelsMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_declutterLabelsMenuItemActionPerformed
+        mapPanel.setDeclutterLabels(declutterLabelsMenuItem.isSelected());
+        mapPanel.repaint();
+    }//GEN-LAST:event_declutterLabelsMenuItemActionPerformed
+
     private void saveMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveMenuItemActionPerformed
         JFileChooser chooser = new JFileChooser();
         chooser.setFileFilter(new FileNameExtensionFilter("Image files (" + String.join(", ", ImageIO.getWriterFileSuffixes()) + ")", ImageIO.getWriterFileSuffixes()));
@@ -235,7 +400,7 @@ public class MainFrame extends javax.swing.JFrame {
         if (choice == JFileChooser.APPROVE_OPTION) {
             File outputFile = chooser.getSelectedFile();
             String extension = outputFile.getName().substring(outputFile.getName().lastIndexOf('.') + 1);
-            BufferedImage img = mapPanel.createFullScaleImage();
+            RenderedImage img = mapPanel.createExportImage();
             try {
                 if (ImageIO.write(img, extension, outputFile)) {
                     JOptionPane.showMessageDialog(this, "Successfully saved " + outputFile.getAbsolutePath());
@@ -245,13 +410,12 @@ public class MainFrame extends javax.swing.JFrame {
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "Error saving image!", "Error", JOptionPane.ERROR_MESSAGE);
                 ex.printStackTrace();
-            } finally {
-                img.flush();
             }
         }
     }//GEN-LAST:event_saveMenuItemActionPerformed
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    javax.swing.JCheckBoxMenuItem declutterLabelsMenuItem;
     javax.swing.JMenuItem exitMenuItem;
     idmapmaker.IDMapPanel mapPanel;
     javax.swing.JScrollPane mapScrollPane;
@@ -265,6 +429,54 @@ public class MainFrame extends javax.swing.JFrame {
     // End of variables declaration//GEN-END:variables
     
     private void doClose() {
+        if (hoverStats != null && mapPanel.getHoverLookup() != null)
+            System.out.println(hoverStats.report(mapPanel.getHoverLookup()));
+        if (reportTiles && mapPanel.getTiles() != null)
+            System.out.println("Tile cache: " + mapPanel.getTiles());
         dispose();
     }
+    
+    /**
+     * Counts mouse moves and the bytes allocated while handling the ones
+     * that stay in the same province, which should be none.
+     */
+    private final class HoverStats {
+        private final com.sun.management.ThreadMXBean threads;
+        private long moves;
+        private long sameMoves;
+        private long sameMoveBytes;
+        private long startBytes;
+        
+        HoverStats() {
+            final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                threads = (com.sun.management.ThreadMXBean) bean;
+                threads.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                threads = null;
+            }
+        }
+        
+        void moveStarted() {
+            mapPanel.getHoverLookup().setTiming(true);
+            if (threads != null)
+                startBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        
+        void moveFinished(boolean changed) {
+            moves++;
+            if (!changed) {
+                sameMoves++;
+                if (threads != null)
+                    sameMoveBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+            }
+        }
+        
+        String report(HoverLookup hover) {
+            return "Mouse moves: " + moves + ", " + sameMoves + " in the same province"
+                    + (threads == null ? "" : " (" + sameMoveBytes + " bytes allocated)")
+                    + "\nLookups: " + hover;
+        }
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * MapCache.java
+ *
+ * Created on Oct 17, 2026, 9:05:31 PM
+ */
+
+package idmapmaker;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the drawn map image, so that the map does not have to be
+ * drawn again when nothing has changed since the last run.
+ * <p>
+ * There is one cache file per id.tbl. It starts with a header that holds a
+ * format version and the length, modification time and CRC-32 of id.tbl,
+ * boundbox.tbl and province.csv (province.csv decides which provinces are
+ * land, sea or PTI, so it affects the image too). The raw palette indices
+ * of the image follow the header. If any of the files has changed the cache
+ * is stale and is simply drawn and saved again.
+ * <p>
+ * The header is checked with a plain read, and the files are checksummed by
+ * streaming them through a small buffer. Only a cache that turns out to be
+ * up to date is memory-mapped, so loading it costs little more than one
+ * copy into the image. Nothing else is mapped: on Windows a mapped file
+ * cannot be replaced until the mapping is garbage collected, which would
+ * stop province.csv from being saved while the map is open, and a stale
+ * cache from being replaced by {@link #save(IdTbl)}.
+ */
+final class MapCache {
+    
+    /** Increase this whenever the format or the drawing changes. */
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x49444d43; // "IDMC"
+    
+    private static final int FILE_COUNT = 3;
+    private static final int HEADER_SIZE = 4 * 4 + FILE_COUNT * 3 * 8;
+    private static final int IMAGE_SIZE = IdTbl.MAP_WIDTH * IdTbl.MAP_HEIGHT;
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 16;
+    
+    private final File cacheFile;
+    private final File[] sources;
+    
+    /**
+     * @param directory the directory to keep the cache file in
+     */
+    MapCache(File directory, String idFilename, String boundboxFilename, String provFilename) {
+        this.sources = new File[] {
+            new File(idFilename), new File(boundboxFilename), new File(provFilename)
+        };
+        this.cacheFile = new File(directory, cacheName(sources[0]));
+    }
+    
+    /**
+     * Returns the directory that caches go in if none is given, which is
+     * <code>.idmapmaker/cache</code> in the user's home directory.
+     */
+    static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), ".idmapmaker" + File.separator + "cache");
+    }
+    
+    File getFile() {
+        return cacheFile;
+    }
+    
+    /**
+     * Gives <code>id</code> the cached image if the cache is there and up
+     * to date.
+     * @return whether the cache was used
+     * @throws IOException if the cache or one of the map files could not be
+     * read
+     */
+    boolean load(IdTbl id) throws IOException {
+        if (!cacheFile.isFile() || cacheFile.length() != HEADER_SIZE + (long) IMAGE_SIZE)
+            return false;
+        
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileInputStream in = new FileInputStream(cacheFile)) {
+            readFully(in.getChannel(), header);
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != IdTbl.MAP_WIDTH || header.getInt() != IdTbl.MAP_HEIGHT)
+            return false;
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        for (File source : sources) {
+            // Compare the cheap things first, so a changed file is usually
+            // caught without reading all of it.
+            if (header.getLong() != source.length() || header.getLong() != source.lastModified())
+                return false;
+            if (header.getLong() != checksum(source, buffer))
+                return false;
+        }
+        
+        final ByteBuffer pixels = TblFile.map(cacheFile.getPath());
+        pixels.position(HEADER_SIZE);
+        id.setPixels(pixels);
+        return true;
+    }
+    
+    /**
+     * Writes <code>id</code>'s image (drawing it if necessary) to the cache.
+     * The file is written under a temporary name first, so a failed write
+     * never leaves a broken cache behind.
+     */
+    void save(IdTbl id) throws IOException {
+        final File dir = cacheFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir.getPath());
+        
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(IdTbl.MAP_WIDTH).putInt(IdTbl.MAP_HEIGHT);
+        final ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        for (File source : sources) {
+            header.putLong(source.length()).putLong(source.lastModified()).putLong(checksum(source, buffer));
+        }
+        header.flip();
+        
+        final File temp = File.createTempFile("map", ".tmp", dir);
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+                    FileChannel channel = raf.getChannel()) {
+                writeFully(channel, header);
+                writeFully(channel, ByteBuffer.wrap(id.getPixels()));
+            }
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0)
+                throw new EOFException();
+        }
+    }
+    
+    /**
+     * Returns the CRC-32 of the file, reading it through <code>buffer</code>.
+     */
+    private static long checksum(File file, ByteBuffer buffer) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (FileInputStream in = new FileInputStream(file)) {
+            final FileChannel channel = in.getChannel();
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+    
+    /**
+     * Names the cache after the full path of id.tbl, so that different
+     * mods get different caches.
+     */
+    private static String cacheName(File idFile) {
+        String path;
+        try {
+            path = idFile.getCanonicalPath();
+        } catch (IOException ex) {
+            path = idFile.getAbsolutePath();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(path.getBytes(StandardCharsets.UTF_8));
+        return "map-" + Long.toHexString(crc.getValue()) + ".cache";
+    }
+}
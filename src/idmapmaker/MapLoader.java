@@ -0,0 +1,361 @@
+/*
+ * MapLoader.java
+ *
+ * Created on Oct 17, 2026, 9:48:02 PM
+ */
+
+package idmapmaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads a map in stages, running the stages that don't depend on each other
+ * at the same time.
+ * <p>
+ * province.csv, id.tbl and boundbox.tbl are all read at once. As soon as
+ * both province.csv and id.tbl are in, the map image is loaded from the
+ * {@link MapCache} or drawn. After that the span index and the ID raster
+ * are built, if they were asked for, and a freshly drawn image is saved to
+ * the cache. The {@link ProvinceStats}, if asked for, are worked out from
+ * id.tbl alongside the image. Each stage has its own future, so callers can
+ * use whatever has finished so far, and {@link ProgressListener}s are told
+ * as each stage starts and finishes.
+ * <p>
+ * Listeners are called on the thread that runs the stage, not on the event
+ * dispatch thread.
+ */
+public final class MapLoader {
+    
+    public enum Stage {
+        PROVINCES("Reading provinces"),
+        ID_TBL("Reading id.tbl"),
+        BOUNDBOX("Reading boundbox.tbl"),
+        IMAGE("Creating map image"),
+        INDEX("Indexing spans"),
+        RASTER("Decoding ID raster"),
+        STATS("Measuring provinces"),
+        SAVE_CACHE("Saving map image to cache");
+        
+        private final String description;
+        
+        private Stage(String description) {
+            this.description = description;
+        }
+        
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+    
+    public interface ProgressListener {
+        void stageStarted(Stage stage);
+        
+        /**
+         * @param millis how long the stage took
+         */
+        void stageFinished(Stage stage, long millis);
+        
+        void stageFailed(Stage stage, Throwable cause);
+    }
+    
+    private final String idFilename;
+    private final String boundboxFilename;
+    private final String provFilename;
+    
+    private boolean memoryMapped = true;
+    private ForkJoinPool renderPool = ForkJoinPool.commonPool();
+    private boolean useCache = true;
+    private File cacheDirectory = MapCache.getDefaultDirectory();
+    private boolean drawImage = true;
+    private boolean buildIndex = false;
+    private boolean buildRaster = false;
+    private boolean computeStats = false;
+    private Executor executor = MapLoader::startThread;
+    
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+    
+    private CompletableFuture<ProvinceData> provinces;
+    private CompletableFuture<IdTbl> idTbl;
+    private CompletableFuture<BoundboxTbl> boundbox;
+    private CompletableFuture<IdTbl> image;
+    private CompletableFuture<ProvinceStats> stats;
+    private CompletableFuture<IdTbl> done;
+    
+    /**
+     * boundbox.tbl is read from the same directory as id.tbl.
+     */
+    public MapLoader(String idFilename, String provFilename) {
+        this(idFilename, new File(idFilename).getParent() + "/boundbox.tbl", provFilename);
+    }
+    
+    public MapLoader(String idFilename, String boundboxFilename, String provFilename) {
+        this.idFilename = idFilename;
+        this.boundboxFilename = boundboxFilename;
+        this.provFilename = provFilename;
+    }
+    
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * Sets the pool to draw the map and build the index in.
+     * @see IdTbl#setRenderPool(ForkJoinPool)
+     */
+    public void setRenderPool(ForkJoinPool renderPool) {
+        this.renderPool = renderPool;
+    }
+    
+    public void setUseCache(boolean useCache) {
+        this.useCache = useCache;
+    }
+    
+    /**
+     * Sets the directory of the {@link MapCache}. The default is
+     * {@link MapCache#getDefaultDirectory()}.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+    
+    /**
+     * Sets whether to create the map image at all. Without it, the
+     * {@link Stage#IMAGE} stage is skipped.
+     */
+    public void setDrawImage(boolean drawImage) {
+        this.drawImage = drawImage;
+    }
+    
+    public void setBuildIndex(boolean buildIndex) {
+        this.buildIndex = buildIndex;
+    }
+    
+    /**
+     * Sets whether to decode the {@link IdRaster}. If there isn't enough
+     * memory for it, the {@link Stage#RASTER} stage fails but the map is
+     * still loaded, using the spans.
+     */
+    public void setBuildRaster(boolean buildRaster) {
+        this.buildRaster = buildRaster;
+    }
+    
+    /**
+     * Sets whether to work out the {@link ProvinceStats}. Without it, the
+     * {@link Stage#STATS} stage is skipped and {@link #getStats()}
+     * completes with <code>null</code>.
+     */
+    public void setComputeStats(boolean computeStats) {
+        this.computeStats = computeStats;
+    }
+    
+    /**
+     * Sets the executor that the stages are run in. The default starts a
+     * new daemon thread for each stage, since most of them spend their time
+     * waiting for the disk.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    public void addProgressListener(ProgressListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeProgressListener(ProgressListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public String getIdFilename() {
+        return idFilename;
+    }
+    
+    public String getBoundboxFilename() {
+        return boundboxFilename;
+    }
+    
+    public String getProvFilename() {
+        return provFilename;
+    }
+    
+    /**
+     * Starts loading. The settings must not be changed after this.
+     * @return a future that completes when all stages are done
+     */
+    public synchronized CompletableFuture<IdTbl> start() {
+        if (done != null)
+            throw new IllegalStateException("Already started");
+        
+        provinces = CompletableFuture.supplyAsync(
+                () -> run(Stage.PROVINCES, () -> new ProvinceData(provFilename)), executor);
+        final CompletableFuture<ByteBuffer> idFile = CompletableFuture.supplyAsync(
+                () -> run(Stage.ID_TBL, () -> IdTbl.load(idFilename, memoryMapped)), executor);
+        boundbox = CompletableFuture.supplyAsync(
+                () -> run(Stage.BOUNDBOX, () -> new BoundboxTbl(boundboxFilename, memoryMapped)), executor);
+        
+        idTbl = idFile.thenCombine(provinces, (buf, data) -> {
+            final IdTbl id = new IdTbl(buf, data);
+            id.setRenderPool(renderPool);
+            return id;
+        });
+        
+        final MapCache cache = useCache
+                ? new MapCache(cacheDirectory, idFilename, boundboxFilename, provFilename)
+                : null;
+        
+        // whether the image still has to be saved to the cache
+        final CompletableFuture<Boolean> drawn = !drawImage ? idTbl.thenApply(id -> false)
+                : idTbl.thenApplyAsync(id -> run(Stage.IMAGE, () -> createImage(id, cache)), executor);
+        image = drawn.thenCombine(idTbl, (unused, id) -> id);
+        
+        final CompletableFuture<IdTbl> indexed = !buildIndex ? image
+                : image.thenApplyAsync(id -> run(Stage.INDEX, () -> {
+                    id.setUseSpanIndex(true);
+                    return id;
+                }), executor);
+        final CompletableFuture<IdTbl> rasterized = !buildRaster ? indexed
+                : indexed.thenApplyAsync(id -> {
+                    try {
+                        run(Stage.RASTER, () -> {
+                            try {
+                                id.setUseRaster(true);
+                            } catch (OutOfMemoryError ex) {
+                                throw new IllegalStateException("not enough direct memory for "
+                                        + IdRaster.SIZE_IN_BYTES / 1000000 + " MB", ex);
+                            }
+                            return null;
+                        });
+                    } catch (CompletionException ex) {
+                        // already reported; go on with the spans
+                    }
+                    return id;
+                }, executor);
+        final CompletableFuture<Void> saved = drawn.thenCombineAsync(idTbl, (save, id) -> {
+            if (save) {
+                try {
+                    run(Stage.SAVE_CACHE, () -> {
+                        cache.save(id);
+                        return null;
+                    });
+                } catch (CompletionException ex) {
+                    // already reported; the map is loaded all the same
+                }
+            }
+            return null;
+        }, executor);
+        
+        stats = !computeStats ? idTbl.thenApply(id -> (ProvinceStats) null)
+                : idTbl.thenApplyAsync(id -> run(Stage.STATS, () -> ProvinceStats.compute(id, renderPool)), executor);
+        
+        done = rasterized.thenCombine(boundbox, (id, bounds) -> id)
+                .thenCombine(saved, (id, unused) -> id)
+                .thenCombine(stats, (id, unused) -> id);
+        return done;
+    }
+    
+    /**
+     * Returns whether the image had to be drawn and so should be cached.
+     */
+    private boolean createImage(IdTbl id, MapCache cache) throws IOException {
+        if (cache != null) {
+            try {
+                if (cache.load(id))
+                    return false;
+            } catch (IOException ex) {
+                // just draw it
+                System.err.println("Error reading map cache: " + ex.getMessage());
+            }
+        }
+        id.getImage();  // it's cached after the first call
+        return cache != null;
+    }
+    
+    public CompletableFuture<ProvinceData> getProvinces() {
+        return checkStarted(provinces);
+    }
+    
+    /**
+     * Completes when id.tbl and province.csv have both been read. The image
+     * may not be drawn yet.
+     */
+    public CompletableFuture<IdTbl> getIdTbl() {
+        return checkStarted(idTbl);
+    }
+    
+    public CompletableFuture<BoundboxTbl> getBoundbox() {
+        return checkStarted(boundbox);
+    }
+    
+    /**
+     * Completes when the map image is ready.
+     */
+    public CompletableFuture<IdTbl> getImage() {
+        return checkStarted(image);
+    }
+    
+    /**
+     * Completes with the province statistics, or with <code>null</code> if
+     * they were not asked for.
+     */
+    public CompletableFuture<ProvinceStats> getStats() {
+        return checkStarted(stats);
+    }
+    
+    public CompletableFuture<IdTbl> getDone() {
+        return checkStarted(done);
+    }
+    
+    private synchronized <T> CompletableFuture<T> checkStarted(CompletableFuture<T> future) {
+        if (future == null)
+            throw new IllegalStateException("Not started yet");
+        return future;
+    }
+    
+    /**
+     * Unwraps the exception that made a stage fail, as passed to the
+     * handlers of this loader's futures.
+     */
+    public static Throwable getCause(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null)
+            ex = ex.getCause();
+        return ex;
+    }
+    
+    private interface StageBody<T> {
+        T run() throws IOException;
+    }
+    
+    private <T> T run(Stage stage, StageBody<T> body) {
+        for (ProgressListener l : listeners)
+            l.stageStarted(stage);
+        
+        final long start = System.nanoTime();
+        final T result;
+        try {
+            result = body.run();
+        } catch (IOException | RuntimeException ex) {
+            for (ProgressListener l : listeners)
+                l.stageFailed(stage, ex);
+            throw new CompletionException(ex);
+        }
+        
+        final long millis = (System.nanoTime() - start) / 1000000;
+        for (ProgressListener l : listeners)
+            l.stageFinished(stage, millis);
+        return result;
+    }
+    
+    private static void startThread(Runnable task) {
+        final Thread thread = new Thread(task, "MapLoader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * MapPyramid.java
+ *
+ * Created on Oct 17, 2026, 2:08:44 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A mipmap pyramid of the map image: the full-size image followed by copies
+ * at 1/2, 1/4, 1/8 and so on of its size, down to about
+ * {@link #MIN_LEVEL_WIDTH} pixels wide.
+ * <p>
+ * Scaling the full 18944x7296 image takes seconds, but any scale factor
+ * can instead be drawn from the level just above it, which is never more
+ * than twice as big as the result. All the levels together take up about a
+ * third of the memory of the full image.
+ */
+final class MapPyramid {
+    
+    static final int MIN_LEVEL_WIDTH = 512;
+    
+    private final List<BufferedImage> levels = new ArrayList<>();
+    
+    /**
+     * Builds all levels of the pyramid. Each level is made by averaging
+     * 2x2 blocks of the one before it. The image must be
+     * <code>TYPE_BYTE_INDEXED</code>, like the one from
+     * {@link IdTbl#getImage()}.
+     * @param pool the pool to build the levels in, or <code>null</code> to
+     * build them on the calling thread
+     */
+    MapPyramid(BufferedImage image, ForkJoinPool pool) {
+        levels.add(image);
+        BufferedImage level = image;
+        while (level.getWidth() / 2 >= MIN_LEVEL_WIDTH && level.getHeight() >= 2) {
+            level = halve(level, pool);
+            levels.add(level);
+        }
+    }
+    
+    private static BufferedImage halve(BufferedImage src, ForkJoinPool pool) {
+        final BufferedImage dst = new BufferedImage(
+                (src.getWidth() + 1) / 2, (src.getHeight() + 1) / 2,
+                src.getType(), (IndexColorModel) src.getColorModel());
+        halve(src, dst, 0, 0, dst.getWidth(), dst.getHeight(), pool);
+        return dst;
+    }
+    
+    /**
+     * Fills the given rectangle of <code>dst</code> with the average of each
+     * 2x2 block of <code>src</code>.
+     */
+    private static void halve(BufferedImage src, BufferedImage dst,
+            final int dstX, final int dstY, final int dstWidth, final int dstHeight, ForkJoinPool pool) {
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int dstStride = dst.getWidth();
+        final byte[] srcPixels = ((DataBufferByte) src.getRaster().getDataBuffer()).getData();
+        final byte[] dstPixels = ((DataBufferByte) dst.getRaster().getDataBuffer()).getData();
+        final Palette palette = Palette.of((IndexColorModel) src.getColorModel());
+        
+        // Each destination pixel is the average of a 2x2 block of the source.
+        RowBands.run(pool, dstY, dstY + dstHeight, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                final int row0 = 2 * y * srcWidth;
+                final int row1 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+                int out = y * dstStride + dstX;
+                for (int x = dstX; x < dstX + dstWidth; x++, out++) {
+                    final int x0 = 2 * x;
+                    final int x1 = Math.min(x0 + 1, srcWidth - 1);
+                    final byte p00 = srcPixels[row0 + x0];
+                    final byte p01 = srcPixels[row0 + x1];
+                    final byte p10 = srcPixels[row1 + x0];
+                    final byte p11 = srcPixels[row1 + x1];
+                    if (p00 == p01 && p00 == p10 && p00 == p11)
+                        dstPixels[out] = p00;   // by far the most common case
+                    else
+                        dstPixels[out] = palette.average(p00, p01, p10, p11);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Rebuilds the part of each level under <code>region</code> of the
+     * full-size image, after those pixels of the image have been changed.
+     */
+    void update(Rectangle region, ForkJoinPool pool) {
+        Rectangle r = region.intersection(new Rectangle(0, 0, levels.get(0).getWidth(), levels.get(0).getHeight()));
+        for (int i = 1; i < levels.size() && !r.isEmpty(); i++) {
+            final BufferedImage dst = levels.get(i);
+            final int x1 = r.x / 2;
+            final int y1 = r.y / 2;
+            final int x2 = Math.min((r.x + r.width + 1) / 2, dst.getWidth());
+            final int y2 = Math.min((r.y + r.height + 1) / 2, dst.getHeight());
+            r = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+            halve(levels.get(i - 1), dst, r.x, r.y, r.width, r.height, pool);
+        }
+    }
+    
+    /**
+     * Averages colors of an indexed image and maps the result back to the
+     * nearest color in the palette.
+     */
+    private static final class Palette {
+        
+        private static final Map<IndexColorModel, Palette> cache = new WeakHashMap<>();
+        
+        private final int[] rgb;
+        /** Nearest palette index for each 15-bit (5 bits per channel) color. */
+        private final byte[] inverse = new byte[1 << 15];
+        
+        private Palette(IndexColorModel cm) {
+            rgb = new int[cm.getMapSize()];
+            cm.getRGBs(rgb);
+            for (int i = 0; i < inverse.length; i++) {
+                inverse[i] = (byte) nearest((i >> 10) << 3 | 4, (i >> 5 & 31) << 3 | 4, (i & 31) << 3 | 4);
+            }
+        }
+        
+        static synchronized Palette of(IndexColorModel cm) {
+            Palette p = cache.get(cm);
+            if (p == null) {
+                p = new Palette(cm);
+                cache.put(cm, p);
+            }
+            return p;
+        }
+        
+        private int nearest(int r, int g, int b) {
+            int best = 0;
+            int bestDist = Integer.MAX_VALUE;
+            for (int i = 0; i < rgb.length; i++) {
+                final int dr = (rgb[i] >> 16 & 0xff) - r;
+                final int dg = (rgb[i] >> 8 & 0xff) - g;
+                final int db = (rgb[i] & 0xff) - b;
+                final int dist = dr*dr + dg*dg + db*db;
+                if (dist < bestDist) {
+                    best = i;
+                    bestDist = dist;
+                }
+            }
+            return best;
+        }
+        
+        byte average(byte p0, byte p1, byte p2, byte p3) {
+            final int c0 = rgb[p0 & 0xff], c1 = rgb[p1 & 0xff], c2 = rgb[p2 & 0xff], c3 = rgb[p3 & 0xff];
+            final int r = ((c0 >> 16 & 0xff) + (c1 >> 16 & 0xff) + (c2 >> 16 & 0xff) + (c3 >> 16 & 0xff)) >> 2;
+            final int g = ((c0 >> 8 & 0xff) + (c1 >> 8 & 0xff) + (c2 >> 8 & 0xff) + (c3 >> 8 & 0xff)) >> 2;
+            final int b = ((c0 & 0xff) + (c1 & 0xff) + (c2 & 0xff) + (c3 & 0xff)) >> 2;
+            return inverse[(r >> 3) << 10 | (g >> 3) << 5 | (b >> 3)];
+        }
+    }
+    
+    int getLevelCount() {
+        return levels.size();
+    }
+    
+    BufferedImage getLevel(int level) {
+        return levels.get(level);
+    }
+    
+    /**
+     * Returns the smallest level that is still at least as big as the map
+     * at the given scale, so drawing from it never has to scale up (except
+     * for scales above 1, which always use the full image).
+     */
+    int levelFor(double scaleFactor) {
+        int level = 0;
+        while (level + 1 < levels.size() && scaleFactor <= 1.0 / (2 << level)) {
+            level++;
+        }
+        return level;
+    }
+}
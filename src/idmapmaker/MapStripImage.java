@@ -0,0 +1,218 @@
+/*
+ * MapStripImage.java
+ *
+ * Created on Oct 17, 2026, 8:20:14 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * The full-size map with labels, as a <code>RenderedImage</code> that is
+ * drawn a strip of lines at a time, straight from the spans in id.tbl, as
+ * an image writer asks for them.
+ * <p>
+ * Image writers that read the image line by line from top to bottom (such
+ * as the PNG writer) never need more than one strip in memory, instead of
+ * the 138 MB map image plus a copy of it to paint the labels on. The
+ * pixels are the same as in {@link IDMapPanel#createFullScaleImage()}.
+ * Writers that ask for the whole raster at once still work, but then the
+ * whole raster is created.
+ */
+final class MapStripImage implements RenderedImage {
+    
+    static final int DEFAULT_STRIP_HEIGHT = 256;
+    
+    private final IdTbl id;
+    private final LabelLayer labels;
+    private final boolean paintIds;
+    private final boolean paintNames;
+    private final boolean paintSeaIds;
+    
+    private final int width = IdTbl.MAP_WIDTH;
+    private final int height = IdTbl.MAP_HEIGHT;
+    private final int stripHeight;
+    private final IndexColorModel colorModel;
+    private final SampleModel sampleModel;
+    
+    // the strip that was drawn last
+    private final byte[] strip;
+    private final BufferedImage stripImage;
+    private int stripY = -1;
+    
+    MapStripImage(IdTbl id, BoundboxTbl bounds, ProvinceStats stats,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds) {
+        this(id, new LabelLayer(id, bounds, stats), paintIds, paintNames, paintSeaIds, DEFAULT_STRIP_HEIGHT);
+    }
+    
+    MapStripImage(IdTbl id, LabelLayer labels, boolean paintIds, boolean paintNames, boolean paintSeaIds,
+            int stripHeight) {
+        this.id = id;
+        this.labels = labels;
+        this.paintIds = paintIds;
+        this.paintNames = paintNames;
+        this.paintSeaIds = paintSeaIds;
+        this.stripHeight = stripHeight;
+        
+        // the same palette as IdTbl.getImage() uses
+        colorModel = (IndexColorModel) new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_INDEXED).getColorModel();
+        sampleModel = colorModel.createCompatibleSampleModel(width, height);
+        
+        strip = new byte[width * stripHeight];
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(strip, strip.length), width, stripHeight, width, 1, new int[] { 0 }, null);
+        stripImage = new BufferedImage(colorModel, raster, false, null);
+    }
+    
+    /**
+     * Makes sure the strip containing line <code>y</code> is drawn.
+     */
+    private void loadStrip(int y) {
+        final int start = y - y % stripHeight;
+        if (start == stripY)
+            return;
+        
+        final int end = Math.min(start + stripHeight, height);
+        id.drawStrip(strip, start, end);
+        
+        final Graphics2D g = stripImage.createGraphics();
+        g.translate(0, -start);
+        final Rectangle clip = new Rectangle(0, start, width, end - start);
+        g.setClip(clip);
+        g.setColor(Color.BLACK);
+        IDMapPanel.paintLabels(g, clip, 1.0, labels, paintIds, paintNames, paintSeaIds);
+        g.dispose();
+        
+        stripY = start;
+    }
+    
+    @Override
+    public synchronized WritableRaster copyData(WritableRaster raster) {
+        if (raster == null)
+            raster = colorModel.createCompatibleWritableRaster(width, height);
+        
+        final Rectangle rect = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            loadStrip(y);
+            raster.setDataElements(rect.x, y, rect.width, 1,
+                    stripImage.getRaster().getDataElements(rect.x, y - stripY, rect.width, 1, null));
+        }
+        return raster;
+    }
+    
+    @Override
+    public Raster getData(Rectangle rect) {
+        final WritableRaster raster = colorModel.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+    
+    @Override
+    public Raster getData() {
+        return copyData(null);
+    }
+    
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData();
+    }
+    
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+    
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+    
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+    
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+    
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+    
+    @Override
+    public int getWidth() {
+        return width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return height;
+    }
+    
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+    
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+    
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+    
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+    
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+    
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+    
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+    
+    @Override
+    public int getTileHeight() {
+        return height;
+    }
+    
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+    
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * MapTiles.java
+ *
+ * Created on Oct 17, 2026, 3:31:10 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+
+/**
+ * Renders the map as fixed-size tiles at a given scale, only for the part
+ * that is actually being painted, and keeps recently used tiles in a
+ * bounded cache.
+ * <p>
+ * This way the memory used depends on the size of the viewport and the
+ * cache, not on the zoom level: at scale 2.0 the whole map would be a
+ * 37888x14592 image, but only the few tiles on screen are ever created.
+ * Tiles are drawn from the {@link MapPyramid} level that best fits the
+ * scale.
+ * <p>
+ * The cache holds tiles up to a budget in bytes and throws out the least
+ * recently used ones beyond that. Thrown-out tiles are not forgotten right
+ * away, though: they are kept through soft references, so zooming back to
+ * a scale that was shown a moment ago usually finds its tiles still there,
+ * but the garbage collector can take them whenever the heap runs low. The
+ * hit and miss counts show how well the budget fits the way the map is
+ * being used.
+ * <p>
+ * Tiles can be rendered in the background (see
+ * {@link #setRenderer(ExecutorService, Component)}). A tile that isn't
+ * ready yet is painted as a stand-in: the tiles of the last scale that was
+ * painted completely, stretched to the new scale, over the smallest
+ * pyramid level for any gaps. When the new scale's tiles arrive, the
+ * component is repainted. Changing the scale again cancels the tiles still
+ * waiting for the old one, so holding down a zoom key never queues up work
+ * for scales that are no longer shown.
+ * <p>
+ * Apart from the rendering itself, everything happens on the event
+ * dispatch thread.
+ */
+final class MapTiles {
+    
+    static final int TILE_SIZE = 256;
+    static final long DEFAULT_MAX_BYTES = 32L << 20;    // 512 full 8-bit tiles
+    
+    private final MapPyramid pyramid;
+    private final int mapWidth;
+    private final int mapHeight;
+    private final IndexColorModel colorModel;
+    private final long maxBytes;
+    
+    /** The tiles within the budget, least recently used first. */
+    private final LinkedHashMap<TileKey, BufferedImage> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes = 0;
+    /** Tiles thrown out of the budget that the garbage collector hasn't taken yet. */
+    private final Map<TileKey, SoftTile> evicted = new HashMap<>();
+    private final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<>();
+    
+    private long hits;
+    private long softHits;
+    private long misses;
+    private long evictions;
+    
+    // background rendering
+    private ExecutorService renderer = null;
+    private Component target = null;
+    private final Map<TileKey, Future<?>> pending = new HashMap<>();
+    private double pendingScale = Double.NaN;
+    /** Changed when tiles are thrown away, so tiles rendered before that are dropped. */
+    private int epoch = 0;
+    /** The last scale at which every painted tile was ready. */
+    private double stableScale = Double.NaN;
+    
+    MapTiles(MapPyramid pyramid) {
+        this(pyramid, DEFAULT_MAX_BYTES);
+    }
+    
+    /**
+     * @param maxBytes how many bytes of tiles to keep, not counting the
+     * ones kept through soft references
+     */
+    MapTiles(MapPyramid pyramid, long maxBytes) {
+        this.pyramid = pyramid;
+        this.maxBytes = maxBytes;
+        final BufferedImage base = pyramid.getLevel(0);
+        mapWidth = base.getWidth();
+        mapHeight = base.getHeight();
+        colorModel = (IndexColorModel) base.getColorModel();
+    }
+    
+    /**
+     * Renders missing tiles with the given executor instead of while
+     * painting, and repaints <code>target</code> as they are done.
+     * @param renderer the executor to render in, or <code>null</code> to
+     * render tiles as they are painted
+     */
+    void setRenderer(ExecutorService renderer, Component target) {
+        cancelPending();
+        this.renderer = renderer;
+        this.target = target;
+    }
+    
+    /**
+     * Returns the width of the whole map at the given scale.
+     */
+    int getWidth(double scaleFactor) {
+        return (int) Math.ceil(mapWidth * scaleFactor);
+    }
+    
+    /**
+     * Returns the height of the whole map at the given scale.
+     */
+    int getHeight(double scaleFactor) {
+        return (int) Math.ceil(mapHeight * scaleFactor);
+    }
+    
+    /**
+     * Paints the tiles that intersect <code>clip</code>, which is in
+     * scaled map coordinates.
+     */
+    void paint(Graphics2D g, Rectangle clip, double scaleFactor) {
+        final int width = getWidth(scaleFactor);
+        final int height = getHeight(scaleFactor);
+        
+        final int startX = Math.max(clip.x, 0) / TILE_SIZE;
+        final int startY = Math.max(clip.y, 0) / TILE_SIZE;
+        final int endX = (Math.min(clip.x + clip.width, width) - 1) / TILE_SIZE;
+        final int endY = (Math.min(clip.y + clip.height, height) - 1) / TILE_SIZE;
+        
+        if (renderer == null) {
+            for (int ty = startY; ty <= endY; ty++) {
+                for (int tx = startX; tx <= endX; tx++) {
+                    g.drawImage(getTile(scaleFactor, tx, ty), tx * TILE_SIZE, ty * TILE_SIZE, null);
+                }
+            }
+            return;
+        }
+        
+        if (scaleFactor != pendingScale) {
+            // the tiles still waiting for the old scale won't be needed
+            cancelPending();
+            pendingScale = scaleFactor;
+        }
+        boolean complete = true;
+        for (int ty = startY; ty <= endY; ty++) {
+            for (int tx = startX; tx <= endX; tx++) {
+                final TileKey key = new TileKey(scaleFactor, tx, ty);
+                final BufferedImage tile = findTile(key);
+                if (tile != null) {
+                    g.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+                } else {
+                    complete = false;
+                    request(key);
+                    paintStandIn(g, scaleFactor, tx, ty);
+                }
+            }
+        }
+        if (complete)
+            stableScale = scaleFactor;
+    }
+    
+    /**
+     * Paints a stretched copy of what is already there in place of a tile
+     * that is still being rendered.
+     */
+    private void paintStandIn(Graphics2D g, double scaleFactor, int tx, int ty) {
+        final int x = tx * TILE_SIZE;
+        final int y = ty * TILE_SIZE;
+        final int w = Math.min(TILE_SIZE, getWidth(scaleFactor) - x);
+        final int h = Math.min(TILE_SIZE, getHeight(scaleFactor) - y);
+        final Graphics2D g2 = (Graphics2D) g.create();
+        g2.clipRect(x, y, w, h);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        
+        // the smallest level is always there, so there are never any holes
+        final BufferedImage src = pyramid.getLevel(pyramid.getLevelCount() - 1);
+        final double levelScale = scaleFactor * mapWidth / src.getWidth();
+        g2.drawImage(src, x, y, x + w, y + h,
+                (int) Math.floor(x / levelScale), (int) Math.floor(y / levelScale),
+                (int) Math.ceil((x + w) / levelScale), (int) Math.ceil((y + h) / levelScale), null);
+        
+        // then whatever tiles of the last complete scale cover the same part
+        if (!Double.isNaN(stableScale) && stableScale != scaleFactor) {
+            final double ratio = scaleFactor / stableScale;
+            final int oldX1 = (int) Math.floor(x / ratio) / TILE_SIZE;
+            final int oldY1 = (int) Math.floor(y / ratio) / TILE_SIZE;
+            final int oldX2 = (int) Math.ceil((x + w) / ratio - 1) / TILE_SIZE;
+            final int oldY2 = (int) Math.ceil((y + h) / ratio - 1) / TILE_SIZE;
+            // after zooming far out, that could be a lot of tiles
+            if ((oldX2 - oldX1 + 1) * (oldY2 - oldY1 + 1) <= 16) {
+                g2.scale(ratio, ratio);
+                for (int oy = oldY1; oy <= oldY2; oy++) {
+                    for (int ox = oldX1; ox <= oldX2; ox++) {
+                        final BufferedImage old = cache.get(new TileKey(stableScale, ox, oy));
+                        if (old != null)
+                            g2.drawImage(old, ox * TILE_SIZE, oy * TILE_SIZE, null);
+                    }
+                }
+            }
+        }
+        g2.dispose();
+    }
+    
+    /**
+     * Starts rendering the given tile in the background, unless it already
+     * is being rendered.
+     */
+    private void request(final TileKey key) {
+        if (pending.containsKey(key))
+            return;
+        misses++;
+        final int requestEpoch = epoch;
+        pending.put(key, renderer.submit(() -> {
+            final BufferedImage tile = renderTile(key.scaleFactor, key.tx, key.ty);
+            SwingUtilities.invokeLater(() -> tileRendered(key, tile, requestEpoch));
+        }));
+    }
+    
+    private void tileRendered(TileKey key, BufferedImage tile, int requestEpoch) {
+        pending.remove(key);
+        if (requestEpoch != epoch)
+            return;     // thrown away while it was being rendered
+        put(key, tile);
+        if (key.scaleFactor == pendingScale)
+            target.repaint(key.tx * TILE_SIZE, key.ty * TILE_SIZE, tile.getWidth(), tile.getHeight());
+    }
+    
+    private void cancelPending() {
+        for (Future<?> f : pending.values()) {
+            f.cancel(false);
+        }
+        pending.clear();
+    }
+    
+    /**
+     * Returns the given tile if it is in the cache, or <code>null</code>.
+     */
+    private BufferedImage findTile(TileKey key) {
+        BufferedImage tile = cache.get(key);
+        if (tile != null) {
+            hits++;
+            return tile;
+        }
+        
+        purgeCleared();
+        final SoftTile soft = evicted.remove(key);
+        tile = (soft == null) ? null : soft.get();
+        if (tile != null) {
+            softHits++;
+            put(key, tile);
+        }
+        return tile;
+    }
+    
+    /**
+     * Returns the given tile, rendering it if it is not in the cache.
+     */
+    BufferedImage getTile(double scaleFactor, int tx, int ty) {
+        final TileKey key = new TileKey(scaleFactor, tx, ty);
+        BufferedImage tile = findTile(key);
+        if (tile == null) {
+            misses++;
+            tile = renderTile(scaleFactor, tx, ty);
+            put(key, tile);
+        }
+        return tile;
+    }
+    
+    private void put(TileKey key, BufferedImage tile) {
+        final BufferedImage old = cache.put(key, tile);
+        if (old != null)
+            cacheBytes -= sizeOf(old);
+        cacheBytes += sizeOf(tile);
+        
+        // Keep at least the tile just added, even if it's over the budget.
+        final Iterator<Map.Entry<TileKey, BufferedImage>> it = cache.entrySet().iterator();
+        while (cacheBytes > maxBytes && cache.size() > 1) {
+            final Map.Entry<TileKey, BufferedImage> eldest = it.next();
+            it.remove();
+            cacheBytes -= sizeOf(eldest.getValue());
+            evicted.put(eldest.getKey(), new SoftTile(eldest.getKey(), eldest.getValue(), cleared));
+            evictions++;
+        }
+    }
+    
+    private static long sizeOf(BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight();  // one byte per pixel
+    }
+    
+    /**
+     * Forgets the tiles whose soft references have been cleared.
+     */
+    private void purgeCleared() {
+        SoftTile ref;
+        while ((ref = (SoftTile) cleared.poll()) != null) {
+            // the key may have been reused since
+            if (evicted.get(ref.key) == ref)
+                evicted.remove(ref.key);
+        }
+    }
+    
+    private BufferedImage renderTile(double scaleFactor, int tx, int ty) {
+        final int x = tx * TILE_SIZE;
+        final int y = ty * TILE_SIZE;
+        final int w = Math.min(TILE_SIZE, getWidth(scaleFactor) - x);
+        final int h = Math.min(TILE_SIZE, getHeight(scaleFactor) - y);
+        
+        final BufferedImage tile = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        
+        final int level = pyramid.levelFor(scaleFactor);
+        final BufferedImage src = pyramid.getLevel(level);
+        final double levelScale = scaleFactor * mapWidth / src.getWidth();
+        
+        // Only the part of the level under the tile is actually sampled.
+        final Graphics2D g = tile.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.translate(-x, -y);
+        g.scale(levelScale, levelScale);
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        
+        return tile;
+    }
+    
+    /**
+     * Throws away the cached tiles at any scale that show some part of
+     * <code>region</code>, which is in full-size map coordinates.
+     */
+    void invalidate(Rectangle region) {
+        epoch++;
+        cancelPending();
+        final Iterator<Map.Entry<TileKey, BufferedImage>> it = cache.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<TileKey, BufferedImage> entry = it.next();
+            if (entry.getKey().shows(region)) {
+                it.remove();
+                cacheBytes -= sizeOf(entry.getValue());
+            }
+        }
+        evicted.keySet().removeIf(key -> key.shows(region));
+    }
+    
+    /**
+     * Throws away all cached tiles.
+     */
+    void clear() {
+        epoch++;
+        cancelPending();
+        cache.clear();
+        cacheBytes = 0;
+        evicted.clear();
+    }
+    
+    long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    /**
+     * Returns the number of bytes of tiles held within the budget.
+     */
+    long getCacheBytes() {
+        return cacheBytes;
+    }
+    
+    /**
+     * Returns how many tiles were found in the cache.
+     */
+    long getHitCount() {
+        return hits;
+    }
+    
+    /**
+     * Returns how many tiles were found among the ones thrown out of the
+     * budget but not yet taken by the garbage collector.
+     */
+    long getSoftHitCount() {
+        return softHits;
+    }
+    
+    /**
+     * Returns how many tiles had to be rendered.
+     */
+    long getMissCount() {
+        return misses;
+    }
+    
+    long getEvictionCount() {
+        return evictions;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d soft hits, %d misses, %d evictions; %d of %d KB used",
+                hits, softHits, misses, evictions, cacheBytes >> 10, maxBytes >> 10);
+    }
+    
+    private static final class SoftTile extends SoftReference<BufferedImage> {
+        final TileKey key;
+        
+        SoftTile(TileKey key, BufferedImage tile, ReferenceQueue<BufferedImage> queue) {
+            super(tile, queue);
+            this.key = key;
+        }
+    }
+    
+    private static final class TileKey {
+        private final double scaleFactor;
+        private final int tx;
+        private final int ty;
+        
+        TileKey(double scaleFactor, int tx, int ty) {
+            this.scaleFactor = scaleFactor;
+            this.tx = tx;
+            this.ty = ty;
+        }
+        
+        /**
+         * Returns whether this tile shows some part of <code>region</code>,
+         * which is in full-size map coordinates.
+         */
+        boolean shows(Rectangle region) {
+            // one extra pixel around the region, for nearest-neighbour rounding
+            final int x1 = (int) Math.floor(region.x * scaleFactor) - 1;
+            final int y1 = (int) Math.floor(region.y * scaleFactor) - 1;
+            final int x2 = (int) Math.ceil((region.x + region.width) * scaleFactor) + 1;
+            final int y2 = (int) Math.ceil((region.y + region.height) * scaleFactor) + 1;
+            return tx * TILE_SIZE < x2 && (tx + 1) * TILE_SIZE > x1
+                    && ty * TILE_SIZE < y2 && (ty + 1) * TILE_SIZE > y1;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey))
+                return false;
+            final TileKey other = (TileKey) obj;
+            return tx == other.tx && ty == other.ty
+                    && Double.doubleToLongBits(scaleFactor) == Double.doubleToLongBits(other.scaleFactor);
+        }
+        
+        @Override
+        public int hashCode() {
+            final long bits = Double.doubleToLongBits(scaleFactor);
+            return (int) (bits ^ (bits >>> 32)) * 31 * 31 + tx * 31 + ty;
+        }
+    }
+}
@@ -16,7 +16,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,23 +30,74 @@ import java.util.regex.Pattern;
  */
 public class ProvinceData {
     
-    public static int NUM_PROVINCES = 2020;
+    /** Flag bit set for every ID that has an entry in the file. */
+    private static final byte EXISTS = 1;
+    /** Flag bit set for land provinces. */
+    private static final byte LAND = 2;
     
-    private final Map<Integer, Province> allProvs = new HashMap<>();
+    private static final String PTI_NAME = "Terra Incognita";
+    
+    /*
+     * The provinces are kept in dense arrays indexed by ID, sized to the
+     * highest ID in the file, so that the lookups done for every span while
+     * drawing the map are just array reads.
+     */
+    private Province[] allProvs = new Province[0];
+    private byte[] flags = new byte[0];
+    private String[] names = new String[0];
     private final List<Province> extras = new ArrayList<>();
     
     private static final Pattern SEMICOLON = Pattern.compile(";");
     
     private String headerString;
+    private boolean complete = true;
     
     public ProvinceData(String filename) {
+        final Map<Integer, Province> provs = new HashMap<>();
         if (filename.endsWith(".csv"))
-            loadCsv(filename);
+            loadCsv(filename, provs);
         else
-            loadTxt(filename);
+            loadTxt(filename, provs);
+        buildTable(provs);
+    }
+    
+    /**
+     * Copies the loaded provinces into the dense arrays and works out the
+     * land flag and name of each one up front.
+     */
+    private void buildTable(Map<Integer, Province> provs) {
+        int maxId = -1;
+        for (Integer id : provs.keySet()) {
+            maxId = Math.max(maxId, id);
+        }
+        
+        allProvs = new Province[maxId + 1];
+        flags = new byte[maxId + 1];
+        names = new String[maxId + 1];
+        Arrays.fill(names, PTI_NAME);
+        
+        for (Map.Entry<Integer, Province> entry : provs.entrySet()) {
+            final int id = entry.getKey();
+            final Province p = entry.getValue();
+            allProvs[id] = p;
+            
+            byte flag = EXISTS;
+            try {
+                if (p.isLand())
+                    flag |= LAND;
+            } catch (RuntimeException e) {
+                flag |= LAND;
+                System.err.print("Error with terrain of " + id + " (treated as land): ");
+                e.printStackTrace();
+            }
+            flags[id] = flag;
+            
+            final String name = p.getName();
+            names[id] = (name == null) ? null : name.intern();
+        }
     }
 
-    private void loadCsv(String filename) {
+    private void loadCsv(String filename, Map<Integer, Province> provs) {
         try {
             final BufferedReader br = new BufferedReader(new FileReader(filename));
             String currLine;
@@ -56,6 +107,8 @@ public class ProvinceData {
             int id = -1;
             
             headerString = br.readLine(); // eat first line but save for future use
+            if (headerString == null)
+                complete = false;   // empty, e.g. while it is being saved
             
             while ((currLine = br.readLine()) != null) {
                 if (currLine.charAt(0) == '#')
@@ -70,7 +123,7 @@ public class ProvinceData {
                         id = Integer.parseInt(sid);
                         
                         if (id >= 0) {
-                            allProvs.put(id, new ProvinceCsv(args));
+                            provs.put(id, new ProvinceCsv(args));
                         } else {
                             extras.add(new ProvinceCsv(args));
                         }
@@ -85,13 +138,15 @@ public class ProvinceData {
             
             br.close();
         } catch (FileNotFoundException e) {
+            complete = false;
             e.printStackTrace();
         } catch (IOException e) {
+            complete = false;
             e.printStackTrace();
         }
     }
     
-    private void loadTxt(String filename) {
+    private void loadTxt(String filename, Map<Integer, Province> provs) {
         GenericObject provinces = EUGFileIO.load(filename);
         
         for (GenericObject prov : provinces.getChildren("province")) {
@@ -99,7 +154,7 @@ public class ProvinceData {
             int id = Integer.parseInt(idStr);
             String name = prov.getString("name");
             String terrain = prov.getString("terrain");
-            allProvs.put(id, new ProvinceTxt(name, terrain));
+            provs.put(id, new ProvinceTxt(name, terrain));
         }
     }
     
@@ -111,8 +166,7 @@ public class ProvinceData {
             writer.write(headerString);
             writer.newLine();
 
-            int maxProv = allProvs.keySet().stream().max(Comparator.naturalOrder()).get();
-            for (int i = 0; i <= maxProv; i++) {
+            for (int i = 0; i < allProvs.length; i++) {
                 Province p = getProvince(i);
                 if (p == null)
                     writer.write(";;;;;;;;;;;;;;0;0;0;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;");
@@ -138,32 +192,66 @@ public class ProvinceData {
         }
     }
     
+    /**
+     * Returns whether the whole file was read. If it could not be read, or
+     * was empty, there are fewer provinces than there should be, and all
+     * the missing ones look like Terra Incognita.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    /**
+     * Returns one more than the highest province ID in the file.
+     */
+    public int getProvinceCount() {
+        return allProvs.length;
+    }
+    
     public Province getProvince(int id) {
-        return allProvs.get(id);
+        if (id < 0 || id >= allProvs.length)
+            return null;
+        return allProvs[id];
     }
     
     public boolean isLand(int id) {
-        final Province p = getProvince(id);
-        if (p == null)
+        if (id < 0 || id >= flags.length)
             return false;
         
-        return p.isLand();
+        return (flags[id] & LAND) != 0;
     }
     
     public boolean isPTI(int id) {
-        final Province p = getProvince(id);
-        if (p == null)
+        if (id < 0 || id >= flags.length)
             return true;
         
-        return false;
+        return (flags[id] & EXISTS) == 0;
+    }
+    
+    /**
+     * Returns the IDs of the provinces that are land, sea or PTI here but
+     * something else in <code>other</code>, in increasing order. These are
+     * the provinces that are drawn differently.
+     */
+    public int[] getReclassifiedIds(ProvinceData other) {
+        final int count = Math.max(flags.length, other.flags.length);
+        int[] ids = new int[16];
+        int size = 0;
+        for (int id = 0; id < count; id++) {
+            if (isPTI(id) != other.isPTI(id) || isLand(id) != other.isLand(id)) {
+                if (size == ids.length)
+                    ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, size);
     }
     
     public String getName(int id) {
-        final Province p = getProvince(id);
-        if (p == null)
-            return "Terra Incognita";
+        if (id < 0 || id >= names.length)
+            return PTI_NAME;
         
-        return p.getName();
+        return names[id];
     }
 //    
 //    public Point getCityPos(int id) {
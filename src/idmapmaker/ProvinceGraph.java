@@ -0,0 +1,329 @@
+/*
+ * ProvinceGraph.java
+ *
+ * Created on Oct 18, 2026, 1:14:40 AM
+ */
+
+package idmapmaker;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Which provinces border which, and how long each shared border is, worked
+ * out from the spans in id.tbl.
+ * <p>
+ * Two provinces touch sideways where one span ends and the next begins in
+ * a line, and up and down where a span in one line overlaps a span of a
+ * different province in the next line. Walking the spans of two lines
+ * together finds every overlap in one pass, so the whole map is a single
+ * sweep from top to bottom, split into bands of lines that are run in
+ * parallel. The length of a border is the number of pixel edges along it.
+ * <p>
+ * The result is stored like a sparse matrix in compressed rows: the
+ * neighbors of province <code>p</code> are at
+ * <code>neighbors[offsets[p]]</code> to
+ * <code>neighbors[offsets[p + 1] - 1]</code>, in increasing order, with the
+ * border lengths at the same indexes in <code>lengths</code>. Every border
+ * is stored twice, once for each side.
+ */
+public final class ProvinceGraph {
+    
+    private final int count;
+    private final int[] offsets;
+    private final int[] neighbors;
+    private final int[] lengths;
+    
+    private ProvinceGraph(int count, int[] offsets, int[] neighbors, int[] lengths) {
+        this.count = count;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.lengths = lengths;
+    }
+    
+    /**
+     * Finds the borders between all provinces in <code>id</code>.
+     * @param pool the pool to run in, or <code>null</code> to do everything
+     * on the calling thread
+     */
+    public static ProvinceGraph build(final IdTbl id, ForkJoinPool pool) {
+        final BorderLengths all = new BorderLengths(1 << 12);
+        RowBands.run(pool, 0, IdTbl.MAP_HEIGHT, (startY, endY) -> {
+            final BorderLengths band = new BorderLengths(1 << 10);
+            addBorders(id, startY, endY, band);
+            synchronized (all) {
+                all.addAll(band);
+            }
+        });
+        return fromBorders(all);
+    }
+    
+    /**
+     * Adds the borders within lines <code>startY</code> to
+     * <code>endY - 1</code>, and those between each of them and the line
+     * below.
+     */
+    private static void addBorders(IdTbl id, int startY, int endY, BorderLengths borders) {
+        short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+        short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+        short[] nextStartX = new short[IdTbl.MAP_WIDTH + 1];
+        short[] nextIds = new short[IdTbl.MAP_WIDTH + 1];
+        
+        int n = id.getSpanCount(startY);
+        int end = id.copySpans(startY, startX, ids, 0);
+        for (int y = startY; y < endY; y++) {
+            // sideways
+            for (int i = 1; i < n; i++) {
+                borders.add(ids[i - 1], ids[i], 1);
+            }
+            
+            if (y + 1 >= IdTbl.MAP_HEIGHT)
+                break;
+            
+            // up and down: walk both lines' spans, one overlap at a time
+            final int nextN = id.getSpanCount(y + 1);
+            final int nextEnd = id.copySpans(y + 1, nextStartX, nextIds, 0);
+            int i = 0, j = 0;
+            while (i < n && j < nextN) {
+                final int x1 = Math.max(startX[i], nextStartX[j]);
+                final int endI = (i + 1 < n) ? startX[i + 1] : end;
+                final int endJ = (j + 1 < nextN) ? nextStartX[j + 1] : nextEnd;
+                final int x2 = Math.min(endI, endJ);
+                if (x2 > x1)
+                    borders.add(ids[i], nextIds[j], x2 - x1);
+                if (endI <= endJ)
+                    i++;
+                if (endJ <= endI)
+                    j++;
+            }
+            
+            short[] tmp = startX;
+            startX = nextStartX;
+            nextStartX = tmp;
+            tmp = ids;
+            ids = nextIds;
+            nextIds = tmp;
+            n = nextN;
+            end = nextEnd;
+        }
+    }
+    
+    private static ProvinceGraph fromBorders(BorderLengths borders) {
+        final long[] keys = borders.getKeys();
+        Arrays.sort(keys);
+        
+        int count = 0;
+        for (long key : keys) {
+            count = Math.max(count, BorderLengths.second(key) + 1);
+        }
+        
+        final int[] offsets = new int[count + 1];
+        for (long key : keys) {
+            offsets[BorderLengths.first(key) + 1]++;
+            offsets[BorderLengths.second(key) + 1]++;
+        }
+        for (int p = 0; p < count; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+        
+        // Going through the sorted pairs (a, b) with a < b fills in each
+        // province's neighbors in increasing order: first the smaller ones,
+        // as the b of pairs that sort before its own, then the bigger ones.
+        final int[] neighbors = new int[offsets[count]];
+        final int[] lengths = new int[offsets[count]];
+        final int[] fill = Arrays.copyOf(offsets, count);
+        for (long key : keys) {
+            final int a = BorderLengths.first(key);
+            final int b = BorderLengths.second(key);
+            final int length = borders.get(key);
+            neighbors[fill[a]] = b;
+            lengths[fill[a]++] = length;
+            neighbors[fill[b]] = a;
+            lengths[fill[b]++] = length;
+        }
+        return new ProvinceGraph(count, offsets, neighbors, lengths);
+    }
+    
+    /**
+     * Returns one more than the highest province ID that borders anything.
+     */
+    public int getProvinceCount() {
+        return count;
+    }
+    
+    /**
+     * Returns the number of pairs of provinces that share a border.
+     */
+    public int getBorderCount() {
+        return neighbors.length / 2;
+    }
+    
+    public int getNeighborCount(int provId) {
+        if (provId < 0 || provId >= count)
+            return 0;
+        return offsets[provId + 1] - offsets[provId];
+    }
+    
+    /**
+     * Returns the IDs of the provinces that border the given one, in
+     * increasing order.
+     */
+    public int[] getNeighbors(int provId) {
+        if (provId < 0 || provId >= count)
+            return new int[0];
+        return Arrays.copyOfRange(neighbors, offsets[provId], offsets[provId + 1]);
+    }
+    
+    /**
+     * Returns the <code>i</code>th neighbor of the province.
+     */
+    public int getNeighbor(int provId, int i) {
+        return neighbors[offsets[provId] + i];
+    }
+    
+    /**
+     * Returns the length of the border with the <code>i</code>th neighbor
+     * of the province.
+     */
+    public int getBorderLengthAt(int provId, int i) {
+        return lengths[offsets[provId] + i];
+    }
+    
+    /**
+     * Returns the length of the border between two provinces, in pixel
+     * edges, or 0 if they don't touch.
+     */
+    public int getBorderLength(int provId, int otherId) {
+        if (provId < 0 || provId >= count)
+            return 0;
+        final int i = Arrays.binarySearch(neighbors, offsets[provId], offsets[provId + 1], otherId);
+        return (i < 0) ? 0 : lengths[i];
+    }
+    
+    public boolean areAdjacent(int provId, int otherId) {
+        return getBorderLength(provId, otherId) > 0;
+    }
+    
+    /**
+     * Writes every border to a semicolon-separated file, like province.csv,
+     * one line per pair of provinces.
+     */
+    public void writeCsv(String filename, ProvinceData data) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write("Id;Name;Neighbor Id;Neighbor Name;Border Length");
+            writer.newLine();
+            for (int p = 0; p < count; p++) {
+                for (int k = offsets[p]; k < offsets[p + 1]; k++) {
+                    final int q = neighbors[k];
+                    if (q < p)
+                        continue;
+                    writer.write(p + ";" + nullToEmpty(data.getName(p)) + ";"
+                            + q + ";" + nullToEmpty(data.getName(q)) + ";" + lengths[k]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+    
+    private static String nullToEmpty(String str) {
+        return (str == null) ? "" : str;
+    }
+    
+    /**
+     * An open-addressed hash table of border lengths, keyed by pairs of
+     * provinces with the smaller ID first.
+     */
+    private static final class BorderLengths {
+        private long[] keys;
+        private int[] lengths;
+        private int size;
+        
+        BorderLengths(int capacity) {
+            keys = new long[capacity];
+            lengths = new int[capacity];
+        }
+        
+        static int first(long key) {
+            return (int) (key >>> 32);
+        }
+        
+        static int second(long key) {
+            return (int) key;
+        }
+        
+        private static int slot(long key, int capacity) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 40) & (capacity - 1);
+        }
+        
+        private int find(long key) {
+            final int mask = keys.length - 1;
+            int slot = slot(key, keys.length);
+            while (lengths[slot] != 0 && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+        
+        /**
+         * Adds to the border between two provinces. Nothing is added if
+         * they are the same, or if either is not a real province.
+         */
+        void add(int a, int b, int length) {
+            if (a == b || a < 0 || b < 0)
+                return;
+            final long key = (a < b) ? ((long) a << 32 | b) : ((long) b << 32 | a);
+            addKey(key, length);
+        }
+        
+        private void addKey(long key, int length) {
+            int slot = find(key);
+            if (lengths[slot] == 0) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = find(key);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            lengths[slot] += length;
+        }
+        
+        private void grow() {
+            final long[] oldKeys = keys;
+            final int[] oldLengths = lengths;
+            keys = new long[oldKeys.length * 2];
+            lengths = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldLengths[i] != 0) {
+                    final int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    lengths[slot] = oldLengths[i];
+                }
+            }
+        }
+        
+        void addAll(BorderLengths other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.lengths[i] != 0)
+                    addKey(other.keys[i], other.lengths[i]);
+            }
+        }
+        
+        int get(long key) {
+            return lengths[find(key)];
+        }
+        
+        long[] getKeys() {
+            final long[] ret = new long[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (lengths[i] != 0)
+                    ret[n++] = keys[i];
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * ProvinceStats.java
+ *
+ * Created on Oct 18, 2026, 12:36:15 AM
+ */
+
+package idmapmaker;
+
+import java.awt.Rectangle;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pixel statistics for every province, worked out from the spans in id.tbl:
+ * the area, the centroid, the extent of its pixels and a label anchor.
+ * <p>
+ * The lines are split into bands (one pass over the spans, in parallel),
+ * and each band adds up its own totals in primitive arrays, which are then
+ * combined. The centroid of a concave or scattered province can lie outside
+ * it, so the label anchor is the centroid only if the province really is
+ * there; otherwise it is the middle of the span nearest the centroid among
+ * the province's longer spans, which takes one more pass over just the
+ * lines of those provinces.
+ */
+public final class ProvinceStats {
+    
+    /** Province IDs are shorts in id.tbl. */
+    private static final int MAX_PROVINCES = Short.MAX_VALUE + 1;
+    
+    private final int count;
+    private final long[] area;
+    private final long[] sumX2;     // twice the sum of the pixel centers' x
+    private final long[] sumY2;     // and y
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;       // exclusive
+    private final int[] maxY;       // exclusive
+    private final int[] anchorX;
+    private final int[] anchorY;
+    
+    private ProvinceStats(Totals totals) {
+        count = totals.maxId + 1;
+        area = Arrays.copyOf(totals.area, count);
+        sumX2 = Arrays.copyOf(totals.sumX2, count);
+        sumY2 = Arrays.copyOf(totals.sumY2, count);
+        minX = Arrays.copyOf(totals.minX, count);
+        minY = Arrays.copyOf(totals.minY, count);
+        maxX = Arrays.copyOf(totals.maxX, count);
+        maxY = Arrays.copyOf(totals.maxY, count);
+        anchorX = new int[count];
+        anchorY = new int[count];
+    }
+    
+    /**
+     * Works out the statistics of all provinces in <code>id</code>.
+     * @param pool the pool to run in, or <code>null</code> to do everything
+     * on the calling thread
+     */
+    public static ProvinceStats compute(final IdTbl id, ForkJoinPool pool) {
+        final Totals totals = new Totals();
+        RowBands.run(pool, 0, IdTbl.MAP_HEIGHT, grain(pool), (startY, endY) -> {
+            final Totals band = new Totals();
+            band.add(id, startY, endY);
+            synchronized (totals) {
+                totals.merge(band);
+            }
+        });
+        
+        final ProvinceStats stats = new ProvinceStats(totals);
+        stats.findAnchors(id, pool, totals.widest);
+        return stats;
+    }
+    
+    /**
+     * Uses a few bands per thread, since each band has its own set of totals.
+     */
+    private static int grain(ForkJoinPool pool) {
+        final int bands = (pool == null) ? 1 : pool.getParallelism() * 4;
+        return Math.max((IdTbl.MAP_HEIGHT + bands - 1) / bands, RowBands.DEFAULT_GRAIN);
+    }
+    
+    private void findAnchors(final IdTbl id, ForkJoinPool pool, int[] widest) {
+        // the provinces whose centroid is not inside them
+        final boolean[] search = new boolean[count];
+        boolean any = false;
+        for (int p = 0; p < count; p++) {
+            if (area[p] == 0)
+                continue;
+            final int cx = (int) Math.floor(getCentroidX(p));
+            final int cy = (int) Math.floor(getCentroidY(p));
+            if (id.getId(cx, cy) == p) {
+                anchorX[p] = cx;
+                anchorY[p] = cy;
+            } else {
+                search[p] = true;
+                any = true;
+            }
+        }
+        if (!any)
+            return;
+        
+        final Candidates best = new Candidates(count);
+        RowBands.run(pool, 0, IdTbl.MAP_HEIGHT, grain(pool), (startY, endY) -> {
+            final Candidates band = new Candidates(count);
+            final short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+            for (int y = startY; y < endY; y++) {
+                final int n = id.getSpanCount(y);
+                final int lastX = Math.min(id.copySpans(y, startX, ids, 0), IdTbl.MAP_WIDTH);
+                for (int i = 0; i < n; i++) {
+                    final int p = ids[i];
+                    if (p < 0 || p >= count || !search[p])
+                        continue;
+                    final int x1 = startX[i];
+                    final int x2 = (i + 1 < n) ? startX[i + 1] : lastX;
+                    // only spans at least half as long as the longest one
+                    if (2 * (x2 - x1) < widest[p])
+                        continue;
+                    // distances in half pixels, to stay in integers
+                    final long dx = (x1 + x2) - sumX2[p] / area[p];
+                    final long dy = (2 * y + 1) - sumY2[p] / area[p];
+                    band.offer(p, dx*dx + dy*dy, (x1 + x2) / 2, y);
+                }
+            }
+            synchronized (best) {
+                best.merge(band);
+            }
+        });
+        
+        for (int p = 0; p < count; p++) {
+            if (search[p]) {
+                anchorX[p] = best.x[p];
+                anchorY[p] = best.y[p];
+            }
+        }
+    }
+    
+    /**
+     * Returns one more than the highest province ID on the map.
+     */
+    public int getProvinceCount() {
+        return count;
+    }
+    
+    /**
+     * Returns whether the province has any pixels on the map.
+     */
+    public boolean isOnMap(int provId) {
+        return provId >= 0 && provId < count && area[provId] > 0;
+    }
+    
+    /**
+     * Returns the number of pixels in the province.
+     */
+    public long getArea(int provId) {
+        return isOnMap(provId) ? area[provId] : 0;
+    }
+    
+    public double getCentroidX(int provId) {
+        return isOnMap(provId) ? sumX2[provId] / (2.0 * area[provId]) : Double.NaN;
+    }
+    
+    public double getCentroidY(int provId) {
+        return isOnMap(provId) ? sumY2[provId] / (2.0 * area[provId]) : Double.NaN;
+    }
+    
+    /**
+     * Returns the smallest rectangle containing all of the province's
+     * pixels, or <code>null</code> if it is not on the map.
+     */
+    public Rectangle getExtent(int provId) {
+        if (!isOnMap(provId))
+            return null;
+        return new Rectangle(minX[provId], minY[provId],
+                maxX[provId] - minX[provId], maxY[provId] - minY[provId]);
+    }
+    
+    /**
+     * Returns the x coordinate of a pixel of the province near its middle,
+     * which is where its label should go.
+     */
+    public int getAnchorX(int provId) {
+        return isOnMap(provId) ? anchorX[provId] : -1;
+    }
+    
+    public int getAnchorY(int provId) {
+        return isOnMap(provId) ? anchorY[provId] : -1;
+    }
+    
+    /**
+     * Writes the statistics of every province on the map to a
+     * semicolon-separated file, like province.csv.
+     */
+    public void writeCsv(String filename, ProvinceData data) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+            writer.write("Id;Name;Type;Area;Centroid X;Centroid Y;Min X;Min Y;Max X;Max Y;Anchor X;Anchor Y");
+            writer.newLine();
+            for (int p = 0; p < count; p++) {
+                if (!isOnMap(p))
+                    continue;
+                final String type = data.isPTI(p) ? "pti" : (data.isLand(p) ? "land" : "sea");
+                final String name = data.getName(p);
+                writer.write(String.format(Locale.US, "%d;%s;%s;%d;%.2f;%.2f;%d;%d;%d;%d;%d;%d",
+                        p, name == null ? "" : name, type, area[p], getCentroidX(p), getCentroidY(p),
+                        minX[p], minY[p], maxX[p] - 1, maxY[p] - 1, anchorX[p], anchorY[p]));
+                writer.newLine();
+            }
+        }
+    }
+    
+    /**
+     * The span nearest the centroid of each province found so far. Of
+     * spans at the same distance the topmost, then leftmost, one wins, so
+     * the anchors don't depend on how the lines were split into bands.
+     */
+    private static final class Candidates {
+        final long[] dist;
+        final int[] x;
+        final int[] y;
+        
+        Candidates(int count) {
+            dist = new long[count];
+            x = new int[count];
+            y = new int[count];
+            Arrays.fill(dist, Long.MAX_VALUE);
+        }
+        
+        void offer(int p, long d, int px, int py) {
+            if (d < dist[p] || (d == dist[p] && (py < y[p] || (py == y[p] && px < x[p])))) {
+                dist[p] = d;
+                x[p] = px;
+                y[p] = py;
+            }
+        }
+        
+        void merge(Candidates other) {
+            for (int p = 0; p < dist.length; p++) {
+                if (other.dist[p] != Long.MAX_VALUE)
+                    offer(p, other.dist[p], other.x[p], other.y[p]);
+            }
+        }
+    }
+    
+    /**
+     * Running totals for a band of lines.
+     */
+    private static final class Totals {
+        int maxId = -1;
+        final long[] area = new long[MAX_PROVINCES];
+        final long[] sumX2 = new long[MAX_PROVINCES];
+        final long[] sumY2 = new long[MAX_PROVINCES];
+        final int[] minX = new int[MAX_PROVINCES];
+        final int[] minY = new int[MAX_PROVINCES];
+        final int[] maxX = new int[MAX_PROVINCES];
+        final int[] maxY = new int[MAX_PROVINCES];
+        /** Length of the longest span of each province. */
+        final int[] widest = new int[MAX_PROVINCES];
+        
+        Totals() {
+            Arrays.fill(minX, Integer.MAX_VALUE);
+            Arrays.fill(minY, Integer.MAX_VALUE);
+        }
+        
+        void add(IdTbl id, int startY, int endY) {
+            final short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+            for (int y = startY; y < endY; y++) {
+                final int n = id.getSpanCount(y);
+                final int lastX = Math.min(id.copySpans(y, startX, ids, 0), IdTbl.MAP_WIDTH);
+                for (int i = 0; i < n; i++) {
+                    final int p = ids[i];
+                    final int x1 = startX[i];
+                    final int x2 = (i + 1 < n) ? startX[i + 1] : lastX;
+                    final int len = x2 - x1;
+                    if (p < 0 || len <= 0)
+                        continue;
+                    
+                    maxId = Math.max(maxId, p);
+                    area[p] += len;
+                    // the centers of pixels x1 to x2 - 1 add up to (x1 + x2) * len / 2
+                    sumX2[p] += (long) (x1 + x2) * len;
+                    sumY2[p] += (long) (2 * y + 1) * len;
+                    minX[p] = Math.min(minX[p], x1);
+                    maxX[p] = Math.max(maxX[p], x2);
+                    minY[p] = Math.min(minY[p], y);
+                    maxY[p] = Math.max(maxY[p], y + 1);
+                    widest[p] = Math.max(widest[p], len);
+                }
+            }
+        }
+        
+        void merge(Totals other) {
+            for (int p = 0; p <= other.maxId; p++) {
+                if (other.area[p] == 0)
+                    continue;
+                area[p] += other.area[p];
+                sumX2[p] += other.sumX2[p];
+                sumY2[p] += other.sumY2[p];
+                minX[p] = Math.min(minX[p], other.minX[p]);
+                minY[p] = Math.min(minY[p], other.minY[p]);
+                maxX[p] = Math.max(maxX[p], other.maxX[p]);
+                maxY[p] = Math.max(maxY[p], other.maxY[p]);
+                widest[p] = Math.max(widest[p], other.widest[p]);
+            }
+            maxId = Math.max(maxId, other.maxId);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * ProvinceWatcher.java
+ *
+ * Created on Oct 17, 2026, 10:41:27 PM
+ */
+
+package idmapmaker;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches province.csv for changes and brings the map image up to date
+ * without drawing all of it again.
+ * <p>
+ * When the file changes, it is read again and compared with the old data.
+ * Only the provinces that became land, sea or PTI look any different, so
+ * only the lines inside their boundboxes are drawn again. The listener is
+ * then told which parts of the map changed.
+ * <p>
+ * Editors often report a change while the file is still being written. If
+ * the file can't be read in full, or has fewer provinces than before (the
+ * file is in ID order, so a half-written one is cut short), the reload is
+ * skipped and the map is left as it is until the next change.
+ */
+final class ProvinceWatcher {
+    
+    /**
+     * How long to wait after a change before reading the file, since
+     * editors often write a file in several steps.
+     */
+    private static final long SETTLE_MILLIS = 250;
+    
+    interface Listener {
+        /**
+         * Called on the watcher's thread after province.csv has been read
+         * again and the map image has been updated.
+         * @param changed the boundboxes of the provinces that are drawn
+         * differently now, in full-size map coordinates
+         */
+        void provincesReloaded(ProvinceData data, List<Rectangle> changed);
+        
+        /**
+         * Called on the watcher's thread if province.csv has changed but
+         * could not be read in full, so the map was left as it was.
+         */
+        void reloadSkipped(String reason);
+    }
+    
+    private final Path file;
+    private final IdTbl id;
+    private final BoundboxTbl bounds;
+    private final Listener listener;
+    
+    private WatchService watcher;
+    
+    ProvinceWatcher(String provFilename, IdTbl id, BoundboxTbl bounds, Listener listener) {
+        this.file = new File(provFilename).getAbsoluteFile().toPath();
+        this.id = id;
+        this.bounds = bounds;
+        this.listener = listener;
+    }
+    
+    /**
+     * Starts watching in a new daemon thread.
+     * @throws IOException if the directory could not be watched
+     */
+    synchronized void start() throws IOException {
+        if (watcher != null)
+            throw new IllegalStateException("Already started");
+        
+        watcher = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        
+        final WatchService service = watcher;
+        final Thread thread = new Thread(() -> watch(service), "ProvinceWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            watcher = null;
+        }
+    }
+    
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                do {
+                    changed |= isOurFile(key);
+                    key.reset();
+                    
+                    // wait for the writes to settle before reading
+                    key = changed ? service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS) : null;
+                } while (key != null);
+                
+                if (changed)
+                    reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // stopped
+        }
+    }
+    
+    private boolean isOurFile(WatchKey key) {
+        boolean ours = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context()))
+                ours = true;
+        }
+        return ours;
+    }
+    
+    /**
+     * Reads province.csv again and redraws the lines of the map that it
+     * changed.
+     */
+    void reload() {
+        final ProvinceData oldData = id.getProvinceData();
+        final ProvinceData newData;
+        try {
+            newData = new ProvinceData(file.toString());
+        } catch (RuntimeException ex) {
+            listener.reloadSkipped(file.getFileName() + " could not be read: " + ex);
+            return;
+        }
+        if (!newData.isComplete()) {
+            listener.reloadSkipped(file.getFileName() + " could not be read in full");
+            return;
+        }
+        if (newData.getProvinceCount() < oldData.getProvinceCount()) {
+            listener.reloadSkipped(file.getFileName() + " has only " + newData.getProvinceCount()
+                    + " provinces instead of " + oldData.getProvinceCount());
+            return;
+        }
+        
+        final int[] ids = newData.getReclassifiedIds(oldData);
+        
+        final List<Rectangle> changed = new ArrayList<>(ids.length);
+        for (int provId : ids) {
+            if (provId < bounds.getProvinceCount()) {
+                final Rectangle r = bounds.getBounds(provId);
+                // the right and bottom edges of a boundbox are inclusive
+                r.width++;
+                r.height++;
+                changed.add(r);
+            }
+        }
+        
+        id.setProvinceData(newData);
+        for (int[] rows : mergeRows(changed)) {
+            id.redrawRows(rows[0], rows[1]);
+        }
+        listener.provincesReloaded(newData, changed);
+    }
+    
+    /**
+     * Turns the rectangles into a sorted list of non-overlapping line
+     * ranges (start inclusive, end exclusive) that cover all of them.
+     */
+    private static List<int[]> mergeRows(List<Rectangle> rects) {
+        final int[][] ranges = new int[rects.size()][];
+        for (int i = 0; i < ranges.length; i++) {
+            final Rectangle r = rects.get(i);
+            ranges[i] = new int[] { r.y, r.y + r.height };
+        }
+        Arrays.sort(ranges, (a, b) -> Integer.compare(a[0], b[0]));
+        
+        final List<int[]> merged = new ArrayList<>();
+        for (int[] range : ranges) {
+            final int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1])
+                last[1] = Math.max(last[1], range[1]);
+            else
+                merged.add(range);
+        }
+        return merged;
+    }
+}
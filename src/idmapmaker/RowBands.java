@@ -0,0 +1,86 @@
+/*
+ * RowBands.java
+ *
+ * Created on Oct 17, 2026, 11:26:51 AM
+ */
+
+package idmapmaker;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs some work over a range of map lines, split into bands that are
+ * processed in parallel on a <code>ForkJoinPool</code>.
+ * <p>
+ * Every line in id.tbl can be decoded on its own, so most of the whole-map
+ * passes in this package are just loops over lines that can be cut up this
+ * way.
+ */
+final class RowBands {
+    
+    /** The default number of lines per band. */
+    static final int DEFAULT_GRAIN = 32;
+    
+    /**
+     * Work to be done for a band of lines.
+     */
+    interface Body {
+        /**
+         * Handles the lines from <code>startY</code> (inclusive) to
+         * <code>endY</code> (exclusive). May be called from any thread, but
+         * never for overlapping bands at the same time.
+         */
+        void run(int startY, int endY);
+    }
+    
+    private RowBands() {
+    }
+    
+    static void run(ForkJoinPool pool, int startY, int endY, Body body) {
+        run(pool, startY, endY, DEFAULT_GRAIN, body);
+    }
+    
+    /**
+     * Runs <code>body</code> over the lines from <code>startY</code> to
+     * <code>endY</code>.
+     * @param pool the pool to run in, or <code>null</code> to run everything
+     * on the calling thread in one band
+     * @param grain the number of lines below which a band is not split further
+     */
+    static void run(ForkJoinPool pool, int startY, int endY, int grain, Body body) {
+        if (startY >= endY)
+            return;
+        if (pool == null)
+            body.run(startY, endY);
+        else
+            pool.invoke(new Band(body, startY, endY, Math.max(grain, 1)));
+    }
+    
+    private static final class Band extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Body body;
+        private final int startY;
+        private final int endY;
+        private final int grain;
+        
+        Band(Body body, int startY, int endY, int grain) {
+            this.body = body;
+            this.startY = startY;
+            this.endY = endY;
+            this.grain = grain;
+        }
+        
+        @Override
+        protected void compute() {
+            if (endY - startY <= grain) {
+                body.run(startY, endY);
+            } else {
+                final int mid = (startY + endY) >>> 1;
+                invokeAll(new Band(body, startY, mid, grain), new Band(body, mid, endY, grain));
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * SpanDownsampler.java
+ *
+ * Created on Oct 18, 2026, 3:05:51 AM
+ */
+
+package idmapmaker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Draws the map at a reduced scale straight from the spans in id.tbl,
+ * without drawing the full-size image first.
+ * <p>
+ * Each output pixel is the average of the colors of the source pixels
+ * under it, weighted by how much of each source pixel it covers, so thin
+ * borders come out as lighter lines instead of flickering in and out as
+ * they would with point sampling. A line of the map is just a few runs of
+ * one color (the border pixel at each end of a span and the fill in
+ * between), so each run is added to the output pixels it overlaps all at
+ * once instead of pixel by pixel. The output lines are split into bands
+ * that are drawn in parallel; each band only reads the source lines under
+ * it and keeps one line of running totals.
+ */
+final class SpanDownsampler {
+    
+    private SpanDownsampler() {
+    }
+    
+    /**
+     * Returns the map as it would look if {@link IdTbl#getImage()} were
+     * scaled by <code>scaleFactor</code> with area averaging.
+     * @param scaleFactor the scale, greater than 0 and at most 1
+     * @param pool the pool to draw in, or <code>null</code> to draw on the
+     * calling thread
+     */
+    static BufferedImage downsample(IdTbl id, double scaleFactor, ForkJoinPool pool) {
+        return downsample(id, scaleFactor, 0, getHeight(scaleFactor), pool);
+    }
+    
+    /**
+     * Returns lines <code>firstY</code> to <code>endY - 1</code> of the
+     * image {@link #downsample(IdTbl, double, ForkJoinPool)} returns, with
+     * line <code>firstY</code> at the top.
+     */
+    static BufferedImage downsample(final IdTbl id, double scaleFactor, final int firstY, int endY,
+            ForkJoinPool pool) {
+        if (!(scaleFactor > 0 && scaleFactor <= 1))
+            throw new IllegalArgumentException("Scale factor must be in (0, 1]: " + scaleFactor);
+        
+        final int width = getWidth(scaleFactor);
+        final BufferedImage ret = new BufferedImage(width, endY - firstY, BufferedImage.TYPE_INT_RGB);
+        final int[] out = ((DataBufferInt) ret.getRaster().getDataBuffer()).getData();
+        final ProvinceData data = id.getProvinceData();
+        final int border = IdTbl.getBorderRGB();
+        final int background = IdTbl.getBackgroundRGB();
+        
+        RowBands.run(pool, firstY, endY, (bandStart, bandEnd) -> {
+            final Accumulator acc = new Accumulator(width, scaleFactor);
+            final short[] startX = new short[IdTbl.MAP_WIDTH + 1];
+            final short[] ids = new short[IdTbl.MAP_WIDTH + 1];
+            
+            for (int oy = bandStart; oy < bandEnd; oy++) {
+                acc.clear();
+                final double top = oy / scaleFactor;
+                final double bottom = Math.min((oy + 1) / scaleFactor, IdTbl.MAP_HEIGHT);
+                final int lastY = Math.min((int) Math.ceil(bottom), IdTbl.MAP_HEIGHT);
+                for (int y = (int) top; y < lastY; y++) {
+                    final double weight = Math.min(y + 1, bottom) - Math.max(y, top);
+                    if (weight <= 0)
+                        continue;
+                    if (y == 0) {
+                        // the first line is never drawn
+                        acc.addRun(0, IdTbl.MAP_WIDTH, background, weight);
+                        continue;
+                    }
+                    
+                    final int n = id.getSpanCount(y);
+                    final int end = id.copySpans(y, startX, ids, 0);
+                    acc.addRun(0, startX[0], background, weight);
+                    for (int i = 0; i < n; i++) {
+                        final int x1 = startX[i];
+                        final int x2 = (i + 1 < n) ? startX[i + 1] : end;
+                        // like drawRows: two border pixels at the start of
+                        // the span, one at the end (the next span draws the
+                        // other), and the fill in between
+                        final int fill = Math.min(x1 + 2, x2);
+                        acc.addRun(x1, fill, border, weight);
+                        if (x2 - 1 > fill)
+                            acc.addRun(fill, x2 - 1, IdTbl.getFillRGB(data, ids[i]), weight);
+                        acc.addRun(Math.max(fill, x2 - 1), x2, border, weight);
+                    }
+                    acc.addRun(end, IdTbl.MAP_WIDTH, background, weight);
+                }
+                acc.write(out, (oy - firstY) * width);
+            }
+        });
+        return ret;
+    }
+    
+    /**
+     * Returns the width of the map at the given scale.
+     */
+    static int getWidth(double scaleFactor) {
+        return (int) Math.ceil(IdTbl.MAP_WIDTH * scaleFactor);
+    }
+    
+    /**
+     * Returns the height of the map at the given scale.
+     */
+    static int getHeight(double scaleFactor) {
+        return (int) Math.ceil(IdTbl.MAP_HEIGHT * scaleFactor);
+    }
+    
+    /**
+     * Running color totals for one output line.
+     */
+    private static final class Accumulator {
+        private final int width;
+        private final double scaleFactor;
+        private final double[] red;
+        private final double[] green;
+        private final double[] blue;
+        private final double[] weight;
+        
+        Accumulator(int width, double scaleFactor) {
+            this.width = width;
+            this.scaleFactor = scaleFactor;
+            red = new double[width];
+            green = new double[width];
+            blue = new double[width];
+            weight = new double[width];
+        }
+        
+        void clear() {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            Arrays.fill(weight, 0);
+        }
+        
+        /**
+         * Adds source pixels <code>x1</code> to <code>x2 - 1</code> of one
+         * line, all of color <code>rgb</code>, covering
+         * <code>rowWeight</code> of the output line's height. The run is
+         * clipped to the map.
+         */
+        void addRun(int x1, int x2, int rgb, double rowWeight) {
+            x1 = Math.max(x1, 0);
+            x2 = Math.min(x2, IdTbl.MAP_WIDTH);
+            if (x2 <= x1)
+                return;
+            final double r = (rgb >> 16 & 0xff) * rowWeight;
+            final double g = (rgb >> 8 & 0xff) * rowWeight;
+            final double b = (rgb & 0xff) * rowWeight;
+            
+            // the run's ends, in output pixels
+            final double left = x1 * scaleFactor;
+            final double right = x2 * scaleFactor;
+            final int first = (int) left;
+            final int last = Math.min((int) Math.ceil(right) - 1, width - 1);
+            for (int ox = first; ox <= last; ox++) {
+                final double w = Math.min(ox + 1, right) - Math.max(ox, left);
+                red[ox] += r * w;
+                green[ox] += g * w;
+                blue[ox] += b * w;
+                weight[ox] += rowWeight * w;
+            }
+        }
+        
+        void write(int[] out, int offset) {
+            for (int ox = 0; ox < width; ox++) {
+                final double w = weight[ox];
+                if (w > 0) {
+                    out[offset + ox] = (int) (red[ox] / w + 0.5) << 16
+                            | (int) (green[ox] / w + 0.5) << 8
+                            | (int) (blue[ox] / w + 0.5);
+                }
+            }
+        }
+    }
+}
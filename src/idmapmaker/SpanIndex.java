@@ -0,0 +1,123 @@
+/*
+ * SpanIndex.java
+ *
+ * Created on Oct 17, 2026, 11:03:18 AM
+ */
+
+package idmapmaker;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Decoded copy of the spans in id.tbl, laid out so that the span under a
+ * point can be found with a binary search instead of reading the line one
+ * span at a time.
+ * <p>
+ * The spans of all lines are stored one after another in two
+ * <code>short</code> arrays, one for the start X values and one for the
+ * province IDs. Since the spans in a line are contiguous, the end of one
+ * span is the start of the next; only the end of the last span in each line
+ * is stored separately. This takes the same 6 bytes per span as id.tbl
+ * itself.
+ * @see IdTbl#setUseSpanIndex(boolean)
+ */
+public final class SpanIndex {
+    
+    private static final int ROWS_PER_TASK = 64;
+    
+    /** Index of the first span of each line; one extra entry at the end. */
+    private final int[] rowStart;
+    private final short[] rowEnd;
+    private final short[] startX;
+    private final short[] ids;
+    
+    private SpanIndex(int[] rowStart, short[] rowEnd, short[] startX, short[] ids) {
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+        this.startX = startX;
+        this.ids = ids;
+    }
+    
+    /**
+     * Decodes every line of the given id.tbl. The lines are counted and then
+     * copied in parallel if a pool is given.
+     * @param pool the pool to decode in, or <code>null</code> to decode on
+     * the calling thread
+     */
+    static SpanIndex build(final IdTbl id, ForkJoinPool pool) {
+        final int height = IdTbl.MAP_HEIGHT;
+        final int[] rowStart = new int[height + 1];
+        final short[] rowEnd = new short[height];
+        
+        // First pass: count the spans in each line.
+        RowBands.run(pool, 0, height, ROWS_PER_TASK, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                rowStart[y+1] = id.getSpanCount(y);
+            }
+        });
+        for (int y = 0; y < height; y++) {
+            rowStart[y+1] += rowStart[y];
+        }
+        
+        // Second pass: copy the spans.
+        final short[] startX = new short[rowStart[height]];
+        final short[] ids = new short[rowStart[height]];
+        RowBands.run(pool, 0, height, ROWS_PER_TASK, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                rowEnd[y] = id.copySpans(y, startX, ids, rowStart[y]);
+            }
+        });
+        
+        return new SpanIndex(rowStart, rowEnd, startX, ids);
+    }
+    
+    /**
+     * Returns the province ID at the given point, or -1 if the point is not
+     * on the map.
+     */
+    public int getId(int x, int y) {
+        if (y < 0 || y >= rowEnd.length)
+            return -1;
+        
+        int lo = rowStart[y];
+        int hi = rowStart[y+1] - 1;
+        if (lo > hi || x < startX[lo] || x >= rowEnd[y])
+            return -1;
+        
+        // find the last span that starts at or before x
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (startX[mid] <= x)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return ids[lo];
+    }
+    
+    /**
+     * Looks up <code>count</code> points at once.
+     * <code>out[i]</code> is set to the ID at
+     * (<code>xs[i]</code>, <code>ys[i]</code>).
+     */
+    public void getIds(int[] xs, int[] ys, int[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = getId(xs[i], ys[i]);
+        }
+    }
+    
+    /**
+     * Returns the total number of spans on the map.
+     */
+    public int getSpanCount() {
+        return startX.length;
+    }
+    
+    /**
+     * Returns the number of bytes taken up by the index arrays.
+     */
+    public long getSizeInBytes() {
+        return 4L * rowStart.length + 2L * rowEnd.length
+                + 2L * startX.length + 2L * ids.length;
+    }
+}
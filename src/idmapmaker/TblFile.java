@@ -0,0 +1,91 @@
+/*
+ * TblFile.java
+ *
+ * Created on Oct 17, 2026, 9:12:40 AM
+ */
+
+package idmapmaker;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Helper methods for getting the binary .tbl map files into a
+ * <code>ByteBuffer</code>.
+ * <p>
+ * Files can either be memory-mapped (the default, which keeps the data out
+ * of the Java heap and lets the OS page it in as needed) or read completely
+ * into a heap buffer. Either way the returned buffer is little-endian and
+ * positioned at 0, so the absolute <code>get</code> methods work the same.
+ */
+final class TblFile {
+    
+    private TblFile() {
+    }
+    
+    static ByteBuffer load(String filename, boolean memoryMapped) throws IOException {
+        return memoryMapped ? map(filename) : read(filename);
+    }
+    
+    /**
+     * Maps the given file read-only into memory.
+     */
+    static ByteBuffer map(String filename) throws IOException {
+        final File file = checkFile(filename);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            final long size = checkSize(file, channel.size());
+            // The mapping stays valid after the channel is closed.
+            final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return buf;
+        }
+    }
+    
+    /**
+     * Reads the whole file into a heap buffer. Unlike a single call to
+     * <code>InputStream.read</code>, this keeps reading until the file is
+     * used up, and fails if it turns out to be shorter than it claimed.
+     */
+    static ByteBuffer read(String filename) throws IOException {
+        final File file = checkFile(filename);
+        try (FileInputStream stream = new FileInputStream(file);
+                FileChannel channel = stream.getChannel()) {
+            final int size = (int) checkSize(file, channel.size());
+            final ByteBuffer buf = ByteBuffer.allocate(size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new EOFException("Unexpected end of " + file.getPath()
+                            + ": read " + buf.position() + " of " + size + " bytes");
+                }
+            }
+            buf.flip();
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return buf;
+        }
+    }
+    
+    private static File checkFile(String filename) throws FileNotFoundException {
+        if (filename == null)
+            throw new FileNotFoundException("No file name given");
+        
+        final File file = new File(filename);
+        if (!file.isFile())
+            throw new FileNotFoundException("Could not find " + file.getPath());
+        
+        return file;
+    }
+    
+    private static long checkSize(File file, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(file.getPath() + " is too large (" + size + " bytes)");
+        return size;
+    }
+}
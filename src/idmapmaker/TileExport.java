@@ -0,0 +1,249 @@
+/*
+ * TileExport.java
+ *
+ * Created on Oct 18, 2026, 3:48:12 AM
+ */
+
+package idmapmaker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes the map as a pyramid of PNG tiles in the <code>z/x/y.png</code>
+ * layout that web map viewers (Leaflet, OpenLayers and the like) load.
+ * <p>
+ * At the highest zoom level a tile pixel is a map pixel, and each level
+ * below halves the scale, down to level 0 where the whole map fits in one
+ * tile. Tiles are {@link #TILE_SIZE} pixels square; where a tile goes past
+ * the edge of the map the rest of it is transparent.
+ * <p>
+ * Every level is drawn straight from the spans in id.tbl by
+ * {@link SpanDownsampler}, one row of tiles at a time, so the whole map
+ * image is never needed. The rows are spread over a pool, and each worker
+ * only holds the strip of the map for the row it is on, which at most is
+ * the width of the map times one tile.
+ * <p>
+ * A list of a checksum of each tile's pixels is kept next to the tiles.
+ * When the tiles are exported again into the same directory, a tile whose
+ * pixels have not changed is not encoded or written again, so its file is
+ * left alone and only the tiles that changed need to be uploaded.
+ */
+final class TileExport {
+    
+    static final int TILE_SIZE = 256;
+    
+    /** The list of tile checksums, in the output directory. */
+    static final String CHECKSUM_FILE = "tiles.txt";
+    
+    private final IdTbl id;
+    private final LabelLayer labels;
+    private final boolean paintIds;
+    private final boolean paintNames;
+    private final boolean paintSeaIds;
+    
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    
+    TileExport(IdTbl id, BoundboxTbl bounds, ProvinceStats stats,
+            boolean paintIds, boolean paintNames, boolean paintSeaIds) {
+        this.id = id;
+        this.labels = new LabelLayer(id, bounds, stats);
+        this.paintIds = paintIds;
+        this.paintNames = paintNames;
+        this.paintSeaIds = paintSeaIds;
+    }
+    
+    /**
+     * Returns the highest zoom level, the first at which one tile pixel is
+     * one map pixel.
+     */
+    static int getMaxZoom() {
+        final int size = Math.max(IdTbl.MAP_WIDTH, IdTbl.MAP_HEIGHT);
+        int zoom = 0;
+        while ((TILE_SIZE << zoom) < size)
+            zoom++;
+        return zoom;
+    }
+    
+    /**
+     * Writes all zoom levels into <code>directory</code>.
+     * @param pool the pool to draw and write tiles in, or <code>null</code>
+     * to do everything on the calling thread
+     */
+    void write(final File directory, ForkJoinPool pool) throws IOException {
+        final Map<String, Long> oldChecksums = readChecksums(new File(directory, CHECKSUM_FILE));
+        final Map<String, Long> checksums = new ConcurrentHashMap<>();
+        written.set(0);
+        unchanged.set(0);
+        
+        for (int zoom = getMaxZoom(); zoom >= 0; zoom--) {
+            final int z = zoom;
+            final double scaleFactor = 1.0 / (1 << (getMaxZoom() - zoom));
+            final int rows = (SpanDownsampler.getHeight(scaleFactor) + TILE_SIZE - 1) / TILE_SIZE;
+            try {
+                RowBands.run(pool, 0, rows, 1, (startRow, endRow) -> {
+                    for (int row = startRow; row < endRow; row++) {
+                        try {
+                            writeRow(directory, z, row, scaleFactor, oldChecksums, checksums);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        }
+        
+        writeChecksums(new File(directory, CHECKSUM_FILE), checksums);
+    }
+    
+    /**
+     * Draws one row of tiles and writes the ones that have changed.
+     */
+    private void writeRow(File directory, int zoom, int row, double scaleFactor,
+            Map<String, Long> oldChecksums, Map<String, Long> checksums) throws IOException {
+        final int mapHeight = SpanDownsampler.getHeight(scaleFactor);
+        final int startY = row * TILE_SIZE;
+        final int endY = Math.min(startY + TILE_SIZE, mapHeight);
+        final BufferedImage strip = SpanDownsampler.downsample(id, scaleFactor, startY, endY, null);
+        
+        if (paintIds || paintNames) {
+            final Graphics2D g = strip.createGraphics();
+            g.translate(0, -startY);
+            final Rectangle clip = new Rectangle(0, startY, strip.getWidth(), endY - startY);
+            g.setClip(clip);
+            g.setColor(Color.BLACK);
+            // the label layer keeps its caches in itself
+            synchronized (labels) {
+                IDMapPanel.paintLabels(g, clip, scaleFactor, labels, paintIds, paintNames, paintSeaIds, true);
+            }
+            g.dispose();
+        }
+        
+        final int[] stripPixels = ((DataBufferInt) strip.getRaster().getDataBuffer()).getData();
+        final int stripWidth = strip.getWidth();
+        final int stripHeight = strip.getHeight();
+        final BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        final int[] tilePixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        final File zoomDirectory = new File(directory, Integer.toString(zoom));
+        
+        for (int column = 0; column * TILE_SIZE < stripWidth; column++) {
+            final int startX = column * TILE_SIZE;
+            final int width = Math.min(TILE_SIZE, stripWidth - startX);
+            for (int y = 0; y < TILE_SIZE; y++) {
+                final int offset = y * TILE_SIZE;
+                if (y < stripHeight) {
+                    final int stripOffset = y * stripWidth + startX;
+                    for (int x = 0; x < width; x++) {
+                        tilePixels[offset + x] = 0xff000000 | stripPixels[stripOffset + x];
+                    }
+                    for (int x = width; x < TILE_SIZE; x++) {
+                        tilePixels[offset + x] = 0;
+                    }
+                } else {
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        tilePixels[offset + x] = 0;
+                    }
+                }
+            }
+            
+            final String name = zoom + "/" + column + "/" + row;
+            final long checksum = checksum(tilePixels);
+            checksums.put(name, checksum);
+            
+            final File columnDirectory = new File(zoomDirectory, Integer.toString(column));
+            final File file = new File(columnDirectory, row + ".png");
+            final Long oldChecksum = oldChecksums.get(name);
+            if (oldChecksum != null && oldChecksum == checksum && file.isFile()) {
+                unchanged.incrementAndGet();
+                continue;
+            }
+            
+            if (!columnDirectory.isDirectory() && !columnDirectory.mkdirs() && !columnDirectory.isDirectory())
+                throw new IOException("Couldn't create " + columnDirectory);
+            ImageIO.write(tile, "png", file);
+            written.incrementAndGet();
+        }
+    }
+    
+    /**
+     * A 64-bit FNV-1a hash of the pixels.
+     */
+    private static long checksum(int[] pixels) {
+        long hash = 0xcbf29ce484222325L;
+        for (int pixel : pixels) {
+            hash = (hash ^ pixel) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * Reads the checksums of the last export, one
+     * "<code>z/x/y checksum</code>" line per tile. A missing or damaged
+     * file just means every tile is written.
+     */
+    private static Map<String, Long> readChecksums(File file) {
+        final Map<String, Long> ret = new ConcurrentHashMap<>();
+        if (!file.isFile())
+            return ret;
+        
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int space = line.indexOf(' ');
+                if (space > 0)
+                    ret.put(line.substring(0, space), Long.parseUnsignedLong(line.substring(space + 1), 16));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            ret.clear();
+        }
+        return ret;
+    }
+    
+    private static void writeChecksums(File file, Map<String, Long> checksums) throws IOException {
+        // written to the side first, so an interrupted export can't leave
+        // a list that claims tiles are up to date when they aren't
+        final File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+            for (Map.Entry<String, Long> entry : checksums.entrySet()) {
+                writer.write(entry.getKey() + " " + Long.toHexString(entry.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Returns the number of tiles written by the last export.
+     */
+    int getWrittenCount() {
+        return written.get();
+    }
+    
+    /**
+     * Returns the number of tiles the last export left alone because they
+     * had not changed.
+     */
+    int getUnchangedCount() {
+        return unchanged.get();
+    }
+}
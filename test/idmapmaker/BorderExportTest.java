@@ -0,0 +1,72 @@
+/*
+ * BorderExportTest.java
+ *
+ * Created on Oct 18, 2026, 6:48:22 AM
+ */
+
+package idmapmaker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks how {@link BorderExport} sorts traced rings into polygons.
+ */
+public class BorderExportTest {
+    
+    private static final int W = IdTbl.MAP_WIDTH;
+    private static final int FILL = 1;
+    private static final int PROV = 2;
+    private static final int LAKE = 3;
+    private static final int INNER_LAKE = 4;
+    
+    /**
+     * An island of PROV in a lake in PROV, with a lake of its own.
+     */
+    private static final int[][] SPANS = {
+        null,
+        { 0, FILL, 100, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 102, LAKE, 138, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 102, LAKE, 105, PROV, 135, LAKE, 138, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 102, LAKE, 105, PROV, 107, INNER_LAKE, 133, PROV, 135, LAKE, 138, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 102, LAKE, 105, PROV, 135, LAKE, 138, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 102, LAKE, 138, PROV, 140, FILL, W },
+        { 0, FILL, 100, PROV, 140, FILL, W },
+    };
+    
+    @Test
+    public void holeGoesToInnermostRing() throws Exception {
+        final ProvinceData data = TestMaps.provinces(new int[] { FILL, PROV }, new int[] { LAKE, INNER_LAKE });
+        final IdTbl id = new IdTbl(TestMaps.idTbl(SPANS, FILL), data);
+        List<int[]> rings = null;
+        for (BorderTracer.Outline outline : new BorderTracer(id).trace()) {
+            if (outline.provId == PROV)
+                rings = outline.rings;
+        }
+        assertEquals(4, rings.size());
+        
+        // whichever order the rings come in
+        final List<int[]> reversed = new ArrayList<>(rings);
+        Collections.reverse(reversed);
+        for (List<int[]> order : Arrays.asList(rings, reversed)) {
+            final List<List<int[]>> polygons = BorderExport.groupRings(order);
+            assertEquals(2, polygons.size());
+            for (List<int[]> polygon : polygons) {
+                assertEquals(2, polygon.size());
+                final long outer = BorderTracer.Outline.area(polygon.get(0));
+                final long hole = -BorderTracer.Outline.area(polygon.get(1));
+                if (outer == 40 * 7) {
+                    assertEquals(36 * 5, hole);     // the lake
+                } else {
+                    assertEquals(30 * 3, outer);    // the island
+                    assertEquals(26 * 1, hole);     // and its lake
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * BorderTracerTest.java
+ *
+ * Created on Oct 18, 2026, 6:31:05 AM
+ */
+
+package idmapmaker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the outlines {@link BorderTracer} traces against the spans they
+ * come from.
+ */
+public class BorderTracerTest {
+    
+    private static final int W = IdTbl.MAP_WIDTH;
+    private static final int FILL = 1;
+    private static final int LINES = 12;
+    
+    private static final int[][] SPANS = {
+        { 0, FILL, W },
+        // a span of length 1, and provinces at both edges of the map
+        { 0, 6, 1, FILL, 200, 3, 201, FILL, W - 1, 7, W },
+        // province 2 with a lake of 4, which has an island of 2 in it
+        { 0, FILL, 100, 2, 120, FILL, W },
+        { 0, FILL, 100, 2, 102, 4, 118, 2, 120, FILL, W },
+        { 0, FILL, 100, 2, 102, 4, 105, 2, 108, 4, 118, 2, 120, FILL, W },
+        { 0, FILL, 100, 2, 102, 4, 118, 2, 120, FILL, W },
+        { 0, FILL, 100, 2, 120, FILL, W },
+        // province 5 touches itself at a corner
+        { 0, FILL, 300, 5, 301, FILL, W },
+        { 0, FILL, 301, 5, 302, FILL, W },
+        // a province of several ragged lines down the left edge
+        { 0, 6, 3, FILL, W },
+        { 0, 6, 7, FILL, 150, 8, 160, FILL, W },
+        { 0, 6, 2, FILL, 155, 8, 170, FILL, W },
+    };
+    
+    private static IdTbl createIdTbl() throws Exception {
+        final ProvinceData data = TestMaps.provinces(new int[] { FILL, 2, 3, 5, 6, 7, 8 }, new int[] { 4 });
+        final IdTbl id = new IdTbl(TestMaps.idTbl(SPANS, FILL), data);
+        id.setRenderPool(null);
+        return id;
+    }
+    
+    @Test
+    public void ringAreasAddUpToTheMap() throws Exception {
+        long sum = 0;
+        for (BorderTracer.Outline outline : new BorderTracer(createIdTbl()).trace()) {
+            for (int[] ring : outline.rings) {
+                sum += BorderTracer.Outline.area(ring);
+            }
+        }
+        assertEquals((long) W * IdTbl.MAP_HEIGHT, sum);
+    }
+    
+    @Test
+    public void pixelsAreInsideTheirOwnOutlineOnly() throws Exception {
+        final IdTbl id = createIdTbl();
+        final List<BorderTracer.Outline> outlines = new BorderTracer(id).trace();
+        final Random random = new Random(1);
+        for (int n = 0; n < 20000; n++) {
+            // mostly near the small provinces, some anywhere
+            final int x = (n % 4 == 0) ? random.nextInt(W) : random.nextInt(400);
+            final int y = (n % 4 == 0) ? random.nextInt(IdTbl.MAP_HEIGHT) : random.nextInt(LINES + 2);
+            for (BorderTracer.Outline outline : outlines) {
+                assertEquals("pixel " + x + "," + y + " in the outline of " + outline.provId,
+                        outline.provId == id.getId(x, y), contains(outline, x + 0.5, y + 0.5));
+            }
+        }
+    }
+    
+    /**
+     * Every segment inside the map is on the outline of the provinces on
+     * both sides of it, once each way round, however much they are
+     * simplified.
+     */
+    @Test
+    public void neighboursShareEachBorder() throws Exception {
+        final IdTbl id = createIdTbl();
+        for (double tolerance : new double[] { 0, 1, 2.5 }) {
+            final BorderTracer tracer = new BorderTracer(id);
+            tracer.setTolerance(tolerance);
+            
+            final Map<String, Integer> segments = new HashMap<>();
+            for (BorderTracer.Outline outline : tracer.trace()) {
+                for (int[] ring : outline.rings) {
+                    if (ring.length < 6)
+                        continue;   // nothing left of it; not exported
+                    for (int i = 0; i < ring.length; i += 2) {
+                        final int j = (i + 2) % ring.length;
+                        segments.merge(segment(ring[i], ring[i + 1], ring[j], ring[j + 1]), 1, Integer::sum);
+                    }
+                }
+            }
+            
+            for (BorderTracer.Outline outline : tracer.trace()) {
+                for (int[] ring : outline.rings) {
+                    if (ring.length < 6)
+                        continue;   // nothing left of it; not exported
+                    for (int i = 0; i < ring.length; i += 2) {
+                        final int j = (i + 2) % ring.length;
+                        final int ax = ring[i], ay = ring[i + 1], bx = ring[j], by = ring[j + 1];
+                        // the outside of the map is not traced, and
+                        // simplifying can pull its borders in from the edge
+                        if (onMapEdge(ax, ay) && onMapEdge(bx, by))
+                            continue;
+                        final String name = "tolerance " + tolerance + ": " + segment(ax, ay, bx, by);
+                        assertEquals(name, Integer.valueOf(1), segments.get(segment(ax, ay, bx, by)));
+                        assertEquals(name + " backwards", Integer.valueOf(1), segments.get(segment(bx, by, ax, ay)));
+                    }
+                }
+            }
+        }
+    }
+    
+    private static String segment(int ax, int ay, int bx, int by) {
+        return ax + "," + ay + " to " + bx + "," + by;
+    }
+    
+    private static boolean onMapEdge(int x, int y) {
+        return x == 0 || x == W || y == 0 || y == IdTbl.MAP_HEIGHT;
+    }
+    
+    /**
+     * Tests a point against all rings of an outline, even-odd.
+     */
+    private static boolean contains(BorderTracer.Outline outline, double px, double py) {
+        boolean inside = false;
+        for (int[] ring : outline.rings) {
+            for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+                final int xi = ring[i], yi = ring[i + 1];
+                final int xj = ring[j], yj = ring[j + 1];
+                if ((yi > py) != (yj > py) && px < (double) (xj - xi) * (py - yi) / (yj - yi) + xi)
+                    inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
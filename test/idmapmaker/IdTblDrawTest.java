@@ -0,0 +1,122 @@
+/*
+ * IdTblDrawTest.java
+ *
+ * Created on Oct 18, 2026, 5:10:48 AM
+ */
+
+package idmapmaker;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/**
+ * Checks that {@link IdTbl} writing spans straight into the image's bytes
+ * gives exactly the same pixels as drawing them with Graphics2D did.
+ */
+public class IdTblDrawTest {
+    
+    private static final int W = IdTbl.MAP_WIDTH;
+    private static final int LAND = 1;
+    private static final int SEA = 2;
+    private static final int OTHER_LAND = 3;
+    private static final int PTI = 7;
+    private static final int LINES = 8;
+    
+    private static final int[][] SPANS = {
+        // line 0 is never drawn
+        { 0, SEA, W },
+        // spans of length 1 among longer ones, of every kind
+        { 0, LAND, 1, SEA, 100, PTI, 101, SEA, 102, PTI, 5000, OTHER_LAND, W },
+        // a span of length 1 at the right edge
+        { 0, SEA, W - 1, PTI, W },
+        // the last span ends past the edge of the map
+        { 0, SEA, 2, PTI, W + 5 },
+        // the first span starts after the left edge
+        { 10, SEA, 500, LAND, W },
+        { 0, PTI, W },
+        { 0, SEA, 1, LAND, 2, SEA, 3, PTI, 4, SEA, W },
+        { 0, OTHER_LAND, W },
+    };
+    
+    private static IdTbl createIdTbl() throws Exception {
+        final ProvinceData data = TestMaps.provinces(new int[] { LAND, OTHER_LAND }, new int[] { SEA });
+        final IdTbl id = new IdTbl(TestMaps.idTbl(SPANS, LAND), data);
+        id.setRenderPool(null);
+        return id;
+    }
+    
+    @Test
+    public void stripMatchesGraphics2D() throws Exception {
+        final IdTbl id = createIdTbl();
+        final byte[] pixels = new byte[W * LINES];
+        id.drawStrip(pixels, 0, LINES);
+        assertArrayEquals(drawWithGraphics(id, 0, LINES), pixels);
+    }
+    
+    @Test
+    public void stripNotAtTopMatchesGraphics2D() throws Exception {
+        final IdTbl id = createIdTbl();
+        final byte[] pixels = new byte[W * (LINES - 3)];
+        id.drawStrip(pixels, 3, LINES);
+        assertArrayEquals(drawWithGraphics(id, 3, LINES), pixels);
+    }
+    
+    @Test
+    public void parallelStripMatchesGraphics2D() throws Exception {
+        final IdTbl id = createIdTbl();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            id.setRenderPool(pool);
+            final byte[] pixels = new byte[W * LINES];
+            id.drawStrip(pixels, 0, LINES);
+            assertArrayEquals(drawWithGraphics(id, 0, LINES), pixels);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Draws lines <code>startY</code> to <code>endY - 1</code> the way
+     * IdTbl used to, with a <code>drawLine</code> for each fill and border.
+     */
+    private static byte[] drawWithGraphics(IdTbl id, int startY, int endY) {
+        final ProvinceData data = id.getProvinceData();
+        final BufferedImage img = new BufferedImage(W, endY - startY, BufferedImage.TYPE_BYTE_INDEXED);
+        final Graphics2D g = img.createGraphics();
+        g.translate(0, -startY);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, startY, W, endY - startY);
+        
+        for (int y = Math.max(startY, 1); y < endY; y++) {
+            final int[] line = SPANS[y];
+            int x = line[0];
+            for (int i = 1; i < line.length; i += 2) {
+                final int startX = x;
+                final int provId = line[i];
+                x = line[i + 1];
+                
+                if (data.isPTI(provId)) {
+                    g.setColor(Color.BLACK);
+                    g.drawLine(startX, y, x, y);
+                } else if (!data.isLand(provId)) {
+                    g.setColor(new Color(111, 168, 223));
+                    g.drawLine(startX, y, x, y);
+                }
+                g.setColor(Color.BLACK);
+                
+                // borders
+                g.drawLine(startX, y, startX+1, y);
+                g.drawLine(x-1, y, x, y);
+            }
+        }
+        g.dispose();
+        
+        return ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MapLoaderTest.java
+ *
+ * Created on Oct 18, 2026, 6:14:40 AM
+ */
+
+package idmapmaker;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link MapLoader} still loads the map when one of the stages
+ * that are only there to speed up the next run fails.
+ */
+public class MapLoaderTest {
+    
+    private static final int LAND = 1;
+    
+    @Test
+    public void loadsWhenCacheCannotBeSaved() throws Exception {
+        final File dir = Files.createTempDirectory("maploader").toFile();
+        try {
+            final File id = new File(dir, "id.tbl");
+            Files.write(id.toPath(), TestMaps.idTbl(new int[0][], LAND));
+            Files.write(new File(dir, "boundbox.tbl").toPath(), boundboxTbl(LAND));
+            final File prov = new File(dir, "province.csv");
+            TestMaps.writeProvinces(prov, new int[] { LAND }, new int[0]);
+            // a directory can't be made inside a plain file
+            final File blocker = new File(dir, "blocker");
+            Files.write(blocker.toPath(), new byte[0]);
+            
+            final MapLoader loader = new MapLoader(id.getPath(), prov.getPath());
+            loader.setMemoryMapped(false);
+            loader.setRenderPool(null);
+            loader.setCacheDirectory(new File(blocker, "cache"));
+            final List<MapLoader.Stage> failed = new CopyOnWriteArrayList<>();
+            loader.addProgressListener(new MapLoader.ProgressListener() {
+                @Override
+                public void stageStarted(MapLoader.Stage stage) {
+                }
+                
+                @Override
+                public void stageFinished(MapLoader.Stage stage, long millis) {
+                }
+                
+                @Override
+                public void stageFailed(MapLoader.Stage stage, Throwable cause) {
+                    failed.add(stage);
+                }
+            });
+            
+            final IdTbl loaded = loader.start().get(60, TimeUnit.SECONDS);
+            assertSame(loader.getImage().get(), loaded);
+            assertTrue(failed.contains(MapLoader.Stage.SAVE_CACHE));
+        } finally {
+            delete(dir);
+        }
+    }
+    
+    private static byte[] boundboxTbl(int provinces) {
+        final ByteBuffer buf = ByteBuffer.allocate(16 * (provinces + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int p = 1; p <= provinces; p++) {
+            buf.putInt(16 * p + 8, IdTbl.MAP_WIDTH);
+            buf.putInt(16 * p + 12, IdTbl.MAP_HEIGHT);
+        }
+        return buf.array();
+    }
+    
+    private static void delete(File file) throws IOException {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * SpanDownsamplerTest.java
+ *
+ * Created on Oct 18, 2026, 7:05:19 AM
+ */
+
+package idmapmaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+
+/**
+ * Checks {@link SpanDownsampler} against the full-size image that
+ * {@link IdTbl} draws.
+ */
+public class SpanDownsamplerTest {
+    
+    private static final int W = IdTbl.MAP_WIDTH;
+    private static final int LAND = 1;
+    private static final int SEA = 2;
+    private static final int OTHER_LAND = 3;
+    private static final int PTI = 7;
+    private static final int LINES = 10;
+    
+    private static final int[][] SPANS = {
+        { 0, SEA, W },
+        { 0, LAND, 1, SEA, 100, PTI, 101, SEA, 102, PTI, 5000, OTHER_LAND, W },
+        { 0, SEA, W - 1, PTI, W },
+        { 0, SEA, 2, PTI, W + 5 },
+        { 10, SEA, 500, LAND, W },
+        { 0, PTI, W },
+        { 0, SEA, 1, LAND, 2, SEA, 3, PTI, 4, SEA, W },
+        { 0, OTHER_LAND, 3, LAND, 5, OTHER_LAND, 9, LAND, W },
+        { 0, LAND, 7, SEA, 8, LAND, 20, SEA, W },
+        { 0, OTHER_LAND, W },
+    };
+    
+    private static IdTbl createIdTbl() throws Exception {
+        final ProvinceData data = TestMaps.provinces(new int[] { LAND, OTHER_LAND }, new int[] { SEA });
+        final IdTbl id = new IdTbl(TestMaps.idTbl(SPANS, LAND), data);
+        id.setRenderPool(null);
+        return id;
+    }
+    
+    @Test
+    public void fullScaleMatchesImage() throws Exception {
+        final IdTbl id = createIdTbl();
+        final BufferedImage image = id.getImage();
+        final BufferedImage strip = SpanDownsampler.downsample(id, 1.0, 0, LINES + 1, null);
+        for (int y = 0; y <= LINES; y++) {
+            for (int x = 0; x < W; x++) {
+                assertEquals("pixel " + x + "," + y, image.getRGB(x, y) & 0xffffff, strip.getRGB(x, y) & 0xffffff);
+            }
+        }
+    }
+    
+    @Test
+    public void reducedScaleMatchesAreaAverage() throws Exception {
+        final IdTbl id = createIdTbl();
+        final BufferedImage image = id.getImage();
+        final double scaleFactor = 0.3;
+        final int lines = (int) Math.ceil((LINES + 1) * scaleFactor);
+        final BufferedImage strip = SpanDownsampler.downsample(id, scaleFactor, 0, lines, null);
+        assertEquals(SpanDownsampler.getWidth(scaleFactor), strip.getWidth());
+        for (int oy = 0; oy < lines; oy++) {
+            for (int ox = 0; ox < strip.getWidth(); ox++) {
+                final int expected = areaAverage(image, scaleFactor, ox, oy);
+                final int actual = strip.getRGB(ox, oy) & 0xffffff;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    final int diff = (expected >> shift & 0xff) - (actual >> shift & 0xff);
+                    assertTrue("pixel " + ox + "," + oy + ": " + Integer.toHexString(expected)
+                            + " vs " + Integer.toHexString(actual), Math.abs(diff) <= 1);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Averages the image's pixels under an output pixel, each weighted by
+     * how much of it the output pixel covers.
+     */
+    private static int areaAverage(BufferedImage image, double scaleFactor, int ox, int oy) {
+        final double left = ox / scaleFactor;
+        final double right = Math.min((ox + 1) / scaleFactor, W);
+        final double top = oy / scaleFactor;
+        final double bottom = Math.min((oy + 1) / scaleFactor, IdTbl.MAP_HEIGHT);
+        double r = 0, g = 0, b = 0, total = 0;
+        for (int y = (int) top; y < bottom; y++) {
+            final double h = Math.min(y + 1, bottom) - Math.max(y, top);
+            for (int x = (int) left; x < right; x++) {
+                final double w = (Math.min(x + 1, right) - Math.max(x, left)) * h;
+                final int rgb = image.getRGB(x, y);
+                r += (rgb >> 16 & 0xff) * w;
+                g += (rgb >> 8 & 0xff) * w;
+                b += (rgb & 0xff) * w;
+                total += w;
+            }
+        }
+        return (int) Math.round(r / total) << 16 | (int) Math.round(g / total) << 8 | (int) Math.round(b / total);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * TestMaps.java
+ *
+ * Created on Oct 18, 2026, 5:02:14 AM
+ */
+
+package idmapmaker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds small map files for the tests.
+ */
+final class TestMaps {
+    
+    /** The terrain column of province.csv; 5 and 6 are sea. */
+    private static final int TERRAIN_COLUMN = 13;
+    
+    private TestMaps() {
+    }
+    
+    /**
+     * Encodes an id.tbl. Line <code>y</code> is given by
+     * <code>lines[y]</code> as the start X of the first span followed by
+     * pairs of (ID, end X) for each span; lines that are
+     * <code>null</code> or past the end of <code>lines</code> are one span
+     * of <code>fillId</code> across the whole map.
+     */
+    static byte[] idTbl(int[][] lines, int fillId) {
+        final int headerSize = 4 * (IdTbl.MAP_HEIGHT + 1);
+        int size = headerSize;
+        for (int y = 0; y < IdTbl.MAP_HEIGHT; y++) {
+            size += lineSize(line(lines, y, fillId));
+        }
+        
+        final ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        for (int y = 0; y < IdTbl.MAP_HEIGHT; y++) {
+            final int[] line = line(lines, y, fillId);
+            buf.putInt(4 * y, offset / 4);
+            buf.position(headerSize + offset);
+            for (int value : line) {
+                buf.putShort((short) value);
+            }
+            offset += lineSize(line);
+        }
+        buf.putInt(4 * IdTbl.MAP_HEIGHT, offset / 4);
+        return buf.array();
+    }
+    
+    private static int[] line(int[][] lines, int y, int fillId) {
+        if (y < lines.length && lines[y] != null)
+            return lines[y];
+        return new int[] { 0, fillId, IdTbl.MAP_WIDTH };
+    }
+    
+    /**
+     * Returns the size of an encoded line, padded to a whole number of
+     * 4-byte words since line offsets count words.
+     */
+    private static int lineSize(int[] line) {
+        return (2 * line.length + 3) / 4 * 4;
+    }
+    
+    /**
+     * Writes a province.csv with the given land and sea provinces to a
+     * temporary file and reads it back. IDs in neither are Terra Incognita.
+     */
+    static ProvinceData provinces(int[] land, int[] sea) throws IOException {
+        final File file = File.createTempFile("province", ".csv");
+        file.deleteOnExit();
+        writeProvinces(file, land, sea);
+        return new ProvinceData(file.getPath());
+    }
+    
+    /**
+     * Writes a province.csv with the given land and sea provinces.
+     */
+    static void writeProvinces(File file, int[] land, int[] sea) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1)) {
+            writer.write("Id;Name\n");
+            for (int id : land) {
+                writer.write(provinceLine(id, 1));
+            }
+            for (int id : sea) {
+                writer.write(provinceLine(id, 5));
+            }
+        }
+    }
+    
+    private static String provinceLine(int id, int terrain) {
+        final StringBuilder line = new StringBuilder();
+        line.append(id).append(";Province ").append(id);
+        for (int column = 2; column <= TERRAIN_COLUMN; column++) {
+            line.append(';').append(column == TERRAIN_COLUMN ? terrain : 0);
+        }
+        return line.append('\n').toString();
+    }
+}